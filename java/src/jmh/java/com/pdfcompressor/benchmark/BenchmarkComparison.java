@@ -0,0 +1,108 @@
+package com.pdfcompressor.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Prints how each benchmark changed between two JSON result files written by BenchmarkRunner.
+// Without arguments the two newest files in benchmark-results are compared, older first:
+// mvn -Pbenchmarks compile exec:exec -Djmh.main=com.pdfcompressor.benchmark.BenchmarkComparison -Djmh.args="old.json new.json"
+public final class BenchmarkComparison {
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path baseline;
+        Path current;
+        if (args.length == 2) {
+            baseline = Paths.get(args[0]);
+            current = Paths.get(args[1]);
+        } else if (args.length == 0) {
+            Path[] newest = newestResults(Paths.get("benchmark-results"));
+            baseline = newest[0];
+            current = newest[1];
+        } else {
+            System.out.println("Usage: BenchmarkComparison [baseline.json current.json]");
+            return;
+        }
+
+        System.out.println("Comparing " + current + " against " + baseline);
+        Map<String, JsonNode> before = readResults(baseline);
+        for (Map.Entry<String, JsonNode> entry : readResults(current).entrySet()) {
+            JsonNode now = entry.getValue();
+            JsonNode then = before.remove(entry.getKey());
+            JsonNode metric = now.path("primaryMetric");
+            String line = entry.getKey() + ": " + format(metric) + " " + metric.path("scoreUnit").asText();
+            if (then == null) {
+                System.out.println(line + " (new)");
+                continue;
+            }
+            line += " was " + format(then.path("primaryMetric")) + " " + change(then.path("primaryMetric"), metric);
+            JsonNode allocationNow = now.path("secondaryMetrics").path(ALLOCATION_METRIC);
+            JsonNode allocationThen = then.path("secondaryMetrics").path(ALLOCATION_METRIC);
+            if (!allocationNow.isMissingNode() && !allocationThen.isMissingNode()) {
+                line += ", allocated " + format(allocationNow) + " B/op " + change(allocationThen, allocationNow);
+            }
+            System.out.println(line);
+        }
+        for (String removed : before.keySet()) {
+            System.out.println(removed + ": (no longer run)");
+        }
+    }
+
+    // Keyed by benchmark, mode and parameters, which is what identifies a result row
+    private static Map<String, JsonNode> readResults(Path file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file.toFile())) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText()
+                .replace("com.pdfcompressor.benchmark.", ""));
+            key.append(" [").append(result.path("mode").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(", ").append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            results.put(key.append(']').toString(), result);
+        }
+        return results;
+    }
+
+    private static Path[] newestResults(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            Path[] sorted = files.filter(file -> file.toString().endsWith(".json"))
+                .sorted(Comparator.comparing(Path::getFileName))
+                .toArray(Path[]::new);
+            if (sorted.length < 2) {
+                throw new IOException("Need two result files in " + directory + " to compare");
+            }
+            return new Path[]{sorted[sorted.length - 2], sorted[sorted.length - 1]};
+        }
+    }
+
+    private static String format(JsonNode metric) {
+        String score = String.format("%.4g", metric.path("score").asDouble());
+        double error = metric.path("scoreError").asDouble(Double.NaN);
+        return Double.isNaN(error) ? score : score + " ± " + String.format("%.2g", error);
+    }
+
+    private static String change(JsonNode before, JsonNode after) {
+        double then = before.path("score").asDouble();
+        double now = after.path("score").asDouble();
+        if (then == 0) {
+            return "(n/a)";
+        }
+        return String.format("(%+.1f%%)", (now - then) / then * 100);
+    }
+}
@@ -0,0 +1,304 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.StoredUpload;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Deterministic synthetic inputs, so runs on different machines and days are comparable.
+// File fixtures are generated once into target/benchmark-fixtures and reused by later runs; the file names
+// carry every parameter, so a changed fixture never silently replaces an old one.
+public final class BenchmarkFixtures {
+
+    private static final long SEED = 42L;
+
+    private static final Path FIXTURE_DIR = Paths.get("target", "benchmark-fixtures");
+
+    private BenchmarkFixtures() {
+    }
+
+    public static BufferedImage watermarkedPage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        // Lines of "text" in dark gray
+        Random random = new Random(SEED);
+        g.setColor(new Color(40, 40, 40));
+        for (int y = 20; y < height - 10; y += 18) {
+            for (int x = 20; x < width - 40; x += 6 + random.nextInt(30)) {
+                g.fillRect(x, y, 3 + random.nextInt(20), 9);
+            }
+        }
+
+        // A large, light, diagonal watermark
+        g.setColor(new Color(120, 120, 160, 90));
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(12, width / 6)));
+        g.rotate(-Math.PI / 6, width / 2.0, height / 2.0);
+        g.drawString("CONFIDENTIAL", width / 10, height / 2);
+        g.dispose();
+        return image;
+    }
+
+    // Smooth gradients with fine noise, like a camera picture
+    public static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(SEED);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(128 + (int) (90 * Math.sin(x / 97.0)) + random.nextInt(16));
+                int g = clamp(110 + (int) (70 * Math.cos(y / 61.0)) + random.nextInt(16));
+                int b = clamp(90 + (int) (60 * Math.sin((x + y) / 143.0)) + random.nextInt(16));
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    // A logo-like image on a transparent background with soft edges
+    public static BufferedImage alphaImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 90, 200, 255), width, height, new Color(200, 60, 30, 40)));
+        g.fillOval(width / 8, height / 8, width * 3 / 4, height * 3 / 4);
+        g.setColor(new Color(255, 255, 255, 200));
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(12, height / 6)));
+        g.drawString("LOGO", width / 3, height / 2);
+        g.dispose();
+        return image;
+    }
+
+    public static Path photoJpeg(int width, int height) throws IOException {
+        Path file = FIXTURE_DIR.resolve("photo-" + width + "x" + height + ".jpg");
+        if (Files.notExists(file)) {
+            writeJpeg(photo(width, height), 0.95f, file);
+        }
+        return file;
+    }
+
+    public static Path alphaPng(int width, int height) throws IOException {
+        Path file = FIXTURE_DIR.resolve("alpha-" + width + "x" + height + ".png");
+        if (Files.notExists(file)) {
+            writeAtomically(file, target -> ImageIO.write(alphaImage(width, height), "png", target.toFile()));
+        }
+        return file;
+    }
+
+    public static Path watermarkedPng(int width, int height) throws IOException {
+        Path file = FIXTURE_DIR.resolve("watermarked-" + width + "x" + height + ".png");
+        if (Files.notExists(file)) {
+            writeAtomically(file, target -> ImageIO.write(watermarkedPage(width, height), "png", target.toFile()));
+        }
+        return file;
+    }
+
+    // Born-digital pages: lines of Helvetica text and a few rules
+    public static Path textPdf(int pages) throws IOException {
+        Path file = FIXTURE_DIR.resolve("text-" + pages + "p.pdf");
+        if (Files.notExists(file)) {
+            writeAtomically(file, target -> {
+                try (PDDocument document = new PDDocument()) {
+                    PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+                    Random random = new Random(SEED);
+                    for (int i = 0; i < pages; i++) {
+                        PDPage page = new PDPage(PDRectangle.LETTER);
+                        document.addPage(page);
+                        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                            content.beginText();
+                            content.setFont(font, 10);
+                            content.newLineAtOffset(50, 740);
+                            for (int line = 0; line < 55; line++) {
+                                content.showText(sentence(random));
+                                content.newLineAtOffset(0, -13);
+                            }
+                            content.endText();
+                            content.moveTo(50, 30);
+                            content.lineTo(562, 30);
+                            content.stroke();
+                        }
+                    }
+                    document.save(target.toFile());
+                }
+            });
+        }
+        return file;
+    }
+
+    // Scanner output: every page is one 200 DPI JPEG of a text page
+    public static Path scannedPdf(int pages) throws IOException {
+        Path file = FIXTURE_DIR.resolve("scanned-" + pages + "p.pdf");
+        if (Files.notExists(file)) {
+            writeAtomically(file, target -> {
+                try (PDDocument document = new PDDocument()) {
+                    BufferedImage scan = watermarkedPage(1700, 2200);
+                    for (int i = 0; i < pages; i++) {
+                        PDPage page = new PDPage(PDRectangle.LETTER);
+                        document.addPage(page);
+                        PDImageXObject image = JPEGFactory.createFromImage(document, scan, 0.85f);
+                        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                            content.drawImage(image, 0, 0, PDRectangle.LETTER.getWidth(), PDRectangle.LETTER.getHeight());
+                        }
+                    }
+                    document.save(target.toFile());
+                }
+            });
+        }
+        return file;
+    }
+
+    // Moving gradients with a sine tone, encoded at a high bitrate so compression has work to do
+    public static Path shortVideo(int seconds, int width, int height) throws IOException {
+        Path file = FIXTURE_DIR.resolve("video-" + seconds + "s-" + width + "x" + height + ".mp4");
+        if (Files.notExists(file)) {
+            writeAtomically(file, target -> {
+                int frameRate = 30;
+                int sampleRate = 44100;
+                try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(target.toFile(), width, height, 1);
+                     Java2DFrameConverter converter = new Java2DFrameConverter()) {
+                    recorder.setFormat("mp4");
+                    recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                    recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                    recorder.setFrameRate(frameRate);
+                    recorder.setVideoBitrate(4_000_000);
+                    recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+                    recorder.setSampleRate(sampleRate);
+                    recorder.setAudioBitrate(128_000);
+                    recorder.start();
+
+                    BufferedImage picture = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                    short[] samples = new short[sampleRate / frameRate];
+                    for (int frame = 0; frame < seconds * frameRate; frame++) {
+                        Graphics2D g = picture.createGraphics();
+                        g.setPaint(new GradientPaint(frame * 4 % width, 0, Color.ORANGE, width - frame * 3 % width, height, Color.BLUE));
+                        g.fillRect(0, 0, width, height);
+                        g.setColor(Color.WHITE);
+                        g.fillOval(frame * 7 % width, height / 3, height / 4, height / 4);
+                        g.dispose();
+                        recorder.record(converter.convert(picture));
+
+                        for (int i = 0; i < samples.length; i++) {
+                            double t = (frame * samples.length + i) / (double) sampleRate;
+                            samples[i] = (short) (8000 * Math.sin(2 * Math.PI * 440 * t));
+                        }
+                        recorder.recordSamples(sampleRate, 1, ShortBuffer.wrap(samples));
+                    }
+                    recorder.stop();
+                }
+            });
+        }
+        return file;
+    }
+
+    // The services read uploads in place, so a fixture is handed over as it is
+    public static StoredUpload upload(Path file, String fileId) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return new StoredUpload(fileId, file.toAbsolutePath(), Files.size(file), HexFormat.of().formatHex(digest.digest()));
+    }
+
+    // An empty cache directory of its own per trial, so no benchmark touches the app's outputs/cache
+    public static Path cacheDir() throws IOException {
+        Files.createDirectories(FIXTURE_DIR);
+        return Files.createTempDirectory(FIXTURE_DIR, "cache-");
+    }
+
+    public static void deleteCacheDir(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface FixtureWriter {
+        void write(Path target) throws IOException;
+    }
+
+    // Forks of the same run may generate a fixture side by side; only complete files are ever visible
+    private static void writeAtomically(Path file, FixtureWriter writer) throws IOException {
+        Files.createDirectories(FIXTURE_DIR);
+        String name = file.getFileName().toString();
+        Path temp = Files.createTempFile(FIXTURE_DIR, "tmp-", name.substring(name.lastIndexOf('.')));
+        try {
+            writer.write(temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeJpeg(BufferedImage image, float quality, Path file) throws IOException {
+        writeAtomically(file, target -> {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        });
+    }
+
+    private static String sentence(Random random) {
+        String[] words = {"report", "quarterly", "revenue", "the", "of", "and", "customer", "growth", "market",
+            "analysis", "compression", "document", "results", "in", "with", "for", "segment", "forecast"};
+        StringBuilder line = new StringBuilder();
+        while (line.length() < 90) {
+            line.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return line.toString().trim();
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,51 @@
+package com.pdfcompressor.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Entry point of the benchmarks profile. Takes the usual JMH arguments, and unless they say otherwise
+// adds the GC profiler (allocation rate per operation) and writes the results as JSON to
+// benchmark-results/<timestamp>.json, so runs can be compared later with BenchmarkComparison.
+public final class BenchmarkRunner {
+
+    private static final Path RESULTS_DIR = Paths.get("benchmark-results");
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            Files.createDirectories(RESULTS_DIR);
+            Path result = RESULTS_DIR.resolve(
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+            options.result(result.toString()).resultFormat(ResultFormatType.JSON);
+            System.out.println("Writing results to " + result.toAbsolutePath());
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,36 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.DocumentConversionService;
+import com.pdfcompressor.service.StoredUpload;
+import com.pdfcompressor.service.UploadStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// convertStoredPdfToWord: text extraction plus writing the .docx
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentConversionBenchmark {
+
+    @Param({"10"})
+    public int pages;
+
+    private DocumentConversionService service;
+    private StoredUpload upload;
+
+    @Setup
+    public void setUp() throws IOException {
+        upload = BenchmarkFixtures.upload(BenchmarkFixtures.textPdf(pages), "benchmark-text");
+        service = new DocumentConversionService(new UploadStorageService(1024));
+    }
+
+    @Benchmark
+    public String convertStoredPdfToWord() throws IOException {
+        return service.convertStoredPdfToWord(upload);
+    }
+}
@@ -0,0 +1,54 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.ImageCompressorService;
+import com.pdfcompressor.service.ResultCacheService;
+import com.pdfcompressor.service.StoredUpload;
+import com.pdfcompressor.service.UploadStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// compressStoredImage (and through it compressImageFile) on a camera-like JPEG and a PNG with alpha, at a fixed
+// quality and with a target size (the quality search; PNG ignores the target)
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageCompressionBenchmark {
+
+    @Param({"photo.jpg", "alpha.png"})
+    public String image;
+
+    @Param({"0.5"})
+    public float quality;
+
+    @Param({"0", "150"})
+    public int targetSizeKb;
+
+    private ImageCompressorService service;
+    private StoredUpload upload;
+    private Path cacheDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheDir = BenchmarkFixtures.cacheDir();
+        upload = BenchmarkFixtures.upload("photo.jpg".equals(image)
+            ? BenchmarkFixtures.photoJpeg(2000, 1500)
+            : BenchmarkFixtures.alphaPng(1200, 900), "benchmark-" + image);
+        service = new ImageCompressorService(new UploadStorageService(1024), new ResultCacheService(false, 0, cacheDir.toString()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFixtures.deleteCacheDir(cacheDir);
+    }
+
+    @Benchmark
+    public String compressStoredImage() throws IOException {
+        return service.compressStoredImage(upload, quality, targetSizeKb * 1024L, 0);
+    }
+}
@@ -0,0 +1,60 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.PDFCompressorService;
+import com.pdfcompressor.service.ResultCacheService;
+import com.pdfcompressor.service.StoredUpload;
+import com.pdfcompressor.service.UploadStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// compressStoredPDF end to end: quality 0.3 takes the low-quality path (per-page choice, image recompression
+// or page rasterization, see strategy), 0.8 the structure-preserving optimization
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PdfCompressionBenchmark {
+
+    @Param({"text", "scanned"})
+    public String document;
+
+    @Param({"0.3", "0.8"})
+    public float quality;
+
+    @Param({"adaptive", "recompress", "rasterize"})
+    public String strategy;
+
+    @Param({"10"})
+    public int pages;
+
+    private PDFCompressorService service;
+    private StoredUpload upload;
+    private Path cacheDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        cacheDir = BenchmarkFixtures.cacheDir();
+        upload = BenchmarkFixtures.upload("text".equals(document)
+            ? BenchmarkFixtures.textPdf(pages)
+            : BenchmarkFixtures.scannedPdf(pages), "benchmark-" + document);
+        // Same settings as application.properties, with the result cache off so every call does the work
+        service = new PDFCompressorService(new UploadStorageService(1024), new ResultCacheService(false, 0, cacheDir.toString()),
+            true, 4, 0, 16, strategy, 100, true, 9);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        service.shutdown();
+        BenchmarkFixtures.deleteCacheDir(cacheDir);
+    }
+
+    @Benchmark
+    public String compressStoredPDF() throws IOException {
+        return service.compressStoredPDF(upload, quality);
+    }
+}
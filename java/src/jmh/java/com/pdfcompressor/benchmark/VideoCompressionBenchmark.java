@@ -0,0 +1,53 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.model.VideoProgress;
+import com.pdfcompressor.service.EncoderPolicy;
+import com.pdfcompressor.service.StoredUpload;
+import com.pdfcompressor.service.UploadStorageService;
+import com.pdfcompressor.service.VideoCompressorService;
+import com.pdfcompressor.service.VideoMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// compressStoredVideo on a short synthetic clip. The pre-flight check is off so the clip is always encoded;
+// maxResolution 480 adds the downscaling path. Each call takes seconds, hence the few, long iterations.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class VideoCompressionBenchmark {
+
+    @Param({"50"})
+    public int compressionLevel;
+
+    @Param({"0", "480"})
+    public int maxResolution;
+
+    @Param({"4"})
+    public int queueDepth;
+
+    private VideoCompressorService service;
+    private StoredUpload upload;
+
+    @Setup
+    public void setUp() throws IOException {
+        upload = BenchmarkFixtures.upload(BenchmarkFixtures.shortVideo(4, 1280, 720), "benchmark-clip.mp4");
+        service = new VideoCompressorService(new UploadStorageService(1024), new VideoMetrics(new SimpleMeterRegistry()),
+            new EncoderPolicy(180, 60, "", 0, 0), true, 4, 60, 0, false, 0.06, 0.10, queueDepth);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public String compressStoredVideo() throws IOException {
+        return service.compressStoredVideo(upload, compressionLevel, maxResolution, 0, new VideoProgress());
+    }
+}
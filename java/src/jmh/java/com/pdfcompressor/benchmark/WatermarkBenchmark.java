@@ -0,0 +1,61 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.WatermarkRasterEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WatermarkBenchmark {
+
+    // Side length of the square test page. The legacy texture-aware pass scores every clean patch for every
+    // masked pixel, so its time grows with the square of the page area; the engine looks up an index instead
+    @Param({"512"})
+    public int size;
+
+    // Tile threads of the raster engine; e.g. -p threads=1,2,4,8 to see how the tiled passes scale
+    @Param({"1"})
+    public int threads;
+
+    private BufferedImage page;
+    private final LegacyWatermarkPasses legacy = new LegacyWatermarkPasses();
+    private WatermarkRasterEngine engine;
+
+    @Setup
+    public void createPage() {
+        page = BenchmarkFixtures.watermarkedPage(size, size);
+        engine = new WatermarkRasterEngine(threads, WatermarkRasterEngine.DEFAULT_TILE_SIZE);
+    }
+
+    @TearDown
+    public void shutdownEngine() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public BufferedImage colorFilteringLegacy() {
+        return legacy.removeWatermarkByColorFiltering(page, 200, 30);
+    }
+
+    @Benchmark
+    public BufferedImage colorFilteringRaster() {
+        return engine.removeByColorFiltering(page, 200, 30);
+    }
+
+    @Benchmark
+    public BufferedImage edgeReconstructionLegacy() {
+        return legacy.removeWatermarkByEdgeReconstruction(page, 120, 30);
+    }
+
+    @Benchmark
+    public BufferedImage edgeReconstructionRaster() {
+        return engine.removeByEdgeReconstruction(page, 120, 30);
+    }
+}
@@ -0,0 +1,54 @@
+package com.pdfcompressor.benchmark;
+
+import com.pdfcompressor.service.StoredUpload;
+import com.pdfcompressor.service.UploadStorageService;
+import com.pdfcompressor.service.WatermarkRasterEngine;
+import com.pdfcompressor.service.WatermarkRemovalService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The watermark service end to end, decoding and encoding included; WatermarkBenchmark times the passes alone.
+// A threshold above 150 selects colour filtering, at or below it edge reconstruction.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WatermarkRemovalBenchmark {
+
+    @Param({"200", "120"})
+    public int threshold;
+
+    @Param({"2"})
+    public int pages;
+
+    private WatermarkRemovalService service;
+    private StoredUpload image;
+    private StoredUpload pdf;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = BenchmarkFixtures.upload(BenchmarkFixtures.watermarkedPng(1024, 1024), "benchmark-watermarked.png");
+        pdf = BenchmarkFixtures.upload(BenchmarkFixtures.scannedPdf(pages), "benchmark-watermarked");
+        service = new WatermarkRemovalService(new UploadStorageService(1024), 0,
+            WatermarkRasterEngine.DEFAULT_TILE_SIZE, 16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public String removeWatermarkFromStoredImage() throws IOException {
+        return service.removeWatermarkFromStoredImage(image, threshold, 30, WatermarkRasterEngine.DEFAULT_EDGE_RADIUS);
+    }
+
+    @Benchmark
+    public String removeWatermarkFromStoredPDF() throws IOException {
+        return service.removeWatermarkFromStoredPDF(pdf, threshold, 30, WatermarkRasterEngine.DEFAULT_EDGE_RADIUS);
+    }
+}
@@ -1,5 +1,6 @@
 package com.pdfcompressor;
 
+import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
@@ -38,7 +39,7 @@ public class PDFCompressor {
     public static void compressPDF(String inputPath, String outputPath, float quality) throws IOException {
         // Load the PDF document
         File inputFile = new File(inputPath);
-        PDDocument document = PDDocument.load(inputFile);
+        PDDocument document = Loader.loadPDF(inputFile);
         
         // Create a new document for the compressed output
         PDDocument compressedDocument = new PDDocument();
@@ -1,20 +1,23 @@
 package com.pdfcompressor.controller;
 
+import com.pdfcompressor.model.JobStatus;
 import com.pdfcompressor.model.ConversionResponse;
 import com.pdfcompressor.service.DocumentConversionService;
+import com.pdfcompressor.service.JobService;
+import com.pdfcompressor.service.StoredUpload;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/convert")
@@ -22,10 +25,15 @@ import java.util.Map;
 public class DocumentConversionController {
 
     private final DocumentConversionService documentConversionService;
+    private final JobService jobService;
+    private final FileDownloadHandler fileDownloadHandler;
 
     @Autowired
-    public DocumentConversionController(DocumentConversionService documentConversionService) {
+    public DocumentConversionController(DocumentConversionService documentConversionService, JobService jobService,
+            FileDownloadHandler fileDownloadHandler) {
         this.documentConversionService = documentConversionService;
+        this.jobService = jobService;
+        this.fileDownloadHandler = fileDownloadHandler;
     }
 
     @PostMapping("/pdf-to-word")
@@ -90,33 +98,88 @@ public class DocumentConversionController {
         }
     }
 
-    @GetMapping("/download/{fileName:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PostMapping("/pdf-to-word/async")
+    public ResponseEntity<JobStatus> convertPdfToWordAsync(@RequestParam("file") MultipartFile file) {
         try {
-            Path filePath = documentConversionService.getConvertedFilePath(fileName);
-            Resource resource = new UrlResource(filePath.toUri());
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().equals("application/pdf")) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Invalid file. Please upload a PDF file.")
+                );
+            }
             
-            if (resource.exists()) {
-                // Determine content type based on file extension
-                String contentType;
-                if (fileName.endsWith(".pdf")) {
-                    contentType = "application/pdf";
-                } else if (fileName.endsWith(".docx")) {
-                    contentType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-                } else {
-                    contentType = "application/octet-stream";
-                }
-                
-                return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = documentConversionService.savePdfUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.CONVERSION, upload, j -> new ConversionResponse(
+                true,
+                documentConversionService.convertStoredPdfToWord(upload),
+                "PDF",
+                "DOCX",
+                "PDF converted to Word successfully"
+            ));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Error: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/word-to-pdf/async")
+    public ResponseEntity<JobStatus> convertWordToPdfAsync(@RequestParam("file") MultipartFile file) {
+        try {
+            // Validate file
+            if (file.isEmpty() || 
+                (!file.getContentType().equals("application/vnd.openxmlformats-officedocument.wordprocessingml.document") &&
+                 !file.getContentType().equals("application/msword"))) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Invalid file. Please upload a Word document.")
+                );
             }
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+            
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = documentConversionService.saveWordUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.CONVERSION, upload, j -> new ConversionResponse(
+                true,
+                documentConversionService.convertStoredWordToPdf(upload),
+                "DOCX",
+                "PDF",
+                "Word document converted to PDF successfully"
+            ));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "CONVERSION", JobStatus.FAILED, "Error: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/download/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path filePath = documentConversionService.getConvertedFilePath(fileName);
+        
+        // Determine content type based on file extension
+        String contentType;
+        if (fileName.endsWith(".pdf")) {
+            contentType = "application/pdf";
+        } else if (fileName.endsWith(".docx")) {
+            contentType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+        } else {
+            contentType = "application/octet-stream";
         }
+        
+        fileDownloadHandler.serve(filePath, contentType, fileName, request, response);
     }
     
     @DeleteMapping("/delete/{fileName:.+}")
@@ -1,20 +1,23 @@
 package com.pdfcompressor.controller;
 
 import com.pdfcompressor.model.CompressionResponse;
+import com.pdfcompressor.model.JobStatus;
 import com.pdfcompressor.service.ImageCompressorService;
+import com.pdfcompressor.service.JobService;
+import com.pdfcompressor.service.StoredUpload;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/image")
@@ -22,43 +25,41 @@ import java.util.Map;
 public class ImageCompressorController {
 
     private final ImageCompressorService imageCompressorService;
+    private final JobService jobService;
+    private final FileDownloadHandler fileDownloadHandler;
 
     @Autowired
-    public ImageCompressorController(ImageCompressorService imageCompressorService) {
+    public ImageCompressorController(ImageCompressorService imageCompressorService, JobService jobService,
+            FileDownloadHandler fileDownloadHandler) {
         this.imageCompressorService = imageCompressorService;
+        this.jobService = jobService;
+        this.fileDownloadHandler = fileDownloadHandler;
     }
 
     @PostMapping("/compress")
     public ResponseEntity<CompressionResponse> compressImage(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("compressionLevel") int compressionLevel) {
+            @RequestParam("compressionLevel") int compressionLevel,
+            @RequestParam(value = "targetSizeKb", defaultValue = "0") double targetSizeKb,
+            @RequestParam(value = "targetSsim", defaultValue = "0") double targetSsim) {
         
         try {
             // Validate file
             if (file.isEmpty() || !file.getContentType().startsWith("image/")) {
                 return ResponseEntity.badRequest().body(new CompressionResponse(false, null, 0, 0, "Invalid file"));
             }
+            String targetError = validateTarget(targetSizeKb, targetSsim);
+            if (targetError != null) {
+                return ResponseEntity.badRequest().body(new CompressionResponse(false, null, 0, 0, targetError));
+            }
 
             // Convert compression level to quality (0-1)
             float quality = Math.max(0.1f, 1 - (compressionLevel / 100.0f));
             
             // Compress the image
-            String fileName = imageCompressorService.compressImage(file, quality);
-            
-            // Get the size of the original and compressed files
-            long originalSize = imageCompressorService.getOriginalFileSize(fileName);
-            long compressedSize = imageCompressorService.getCompressedFileSize(fileName);
-            
-            // Create response
-            CompressionResponse response = new CompressionResponse(
-                true,
-                fileName,
-                originalSize,
-                compressedSize,
-                "Image compressed successfully"
-            );
+            String fileName = imageCompressorService.compressImage(file, quality, toBytes(targetSizeKb), targetSsim);
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(buildResponse(fileName));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError()
@@ -66,26 +67,82 @@ public class ImageCompressorController {
         }
     }
 
-    @GetMapping("/download/{fileName:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PostMapping("/compress/async")
+    public ResponseEntity<JobStatus> compressImageAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("compressionLevel") int compressionLevel,
+            @RequestParam(value = "targetSizeKb", defaultValue = "0") double targetSizeKb,
+            @RequestParam(value = "targetSsim", defaultValue = "0") double targetSsim) {
+        
         try {
-            Path filePath = imageCompressorService.getCompressedFilePath(fileName);
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (resource.exists()) {
-                // Determine the content type based on file extension
-                String contentType = determineContentType(fileName);
-                
-                return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().startsWith("image/")) {
+                return ResponseEntity.badRequest().body(new JobStatus(null, "IMAGE", JobStatus.FAILED, "Invalid file"));
+            }
+            String targetError = validateTarget(targetSizeKb, targetSsim);
+            if (targetError != null) {
+                return ResponseEntity.badRequest().body(new JobStatus(null, "IMAGE", JobStatus.FAILED, targetError));
             }
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+
+            // Convert compression level to quality (0-1)
+            float quality = Math.max(0.1f, 1 - (compressionLevel / 100.0f));
+            
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = imageCompressorService.saveUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.IMAGE, upload,
+                j -> buildResponse(imageCompressorService.compressStoredImage(upload, quality, toBytes(targetSizeKb),
+                    targetSsim)));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "IMAGE", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "IMAGE", JobStatus.FAILED, "Error: " + e.getMessage()));
+        }
+    }
+
+    // A JPEG can aim at a size or at a similarity to the original, not both; 0 leaves either off
+    private static String validateTarget(double targetSizeKb, double targetSsim) {
+        if (targetSizeKb < 0) {
+            return "targetSizeKb must not be negative.";
+        }
+        if (targetSsim < 0 || targetSsim >= 1) {
+            return "targetSsim must be between 0 and 1.";
+        }
+        if (targetSizeKb > 0 && targetSsim > 0) {
+            return "Use either targetSizeKb or targetSsim, not both.";
         }
+        return null;
+    }
+
+    private static long toBytes(double kilobytes) {
+        return (long) (kilobytes * 1024);
+    }
+
+    private CompressionResponse buildResponse(String fileName) throws IOException {
+        // Get the size of the original and compressed files
+        long originalSize = imageCompressorService.getOriginalFileSize(fileName);
+        long compressedSize = imageCompressorService.getCompressedFileSize(fileName);
+        
+        // Create response
+        return new CompressionResponse(
+            true,
+            fileName,
+            originalSize,
+            compressedSize,
+            "Image compressed successfully"
+        );
+    }
+
+    @GetMapping("/download/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path filePath = imageCompressorService.getCompressedFilePath(fileName);
+        fileDownloadHandler.serve(filePath, determineContentType(fileName), fileName, request, response);
     }
     
     @DeleteMapping("/delete/{fileName:.+}")
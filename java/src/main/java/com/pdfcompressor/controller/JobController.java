@@ -0,0 +1,40 @@
+package com.pdfcompressor.controller;
+
+import com.pdfcompressor.model.JobStatus;
+import com.pdfcompressor.model.VideoProgress;
+import com.pdfcompressor.service.JobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*") // In production, restrict this to your frontend URL
+public class JobController {
+
+    private final JobService jobService;
+
+    @Autowired
+    public JobController(JobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<JobStatus> getJob(@PathVariable String jobId) {
+        JobStatus job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    // Frame-level progress of a video job: frames per second, encoded bytes, time remaining, stage timings
+    @GetMapping("/{jobId}/progress")
+    public ResponseEntity<VideoProgress> getProgress(@PathVariable String jobId) {
+        JobStatus job = jobService.getJob(jobId);
+        if (job == null || job.getVideoProgress() == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job.getVideoProgress());
+    }
+}
@@ -1,21 +1,29 @@
 package com.pdfcompressor.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pdfcompressor.model.CompressionResponse;
+import com.pdfcompressor.model.JobStatus;
+import com.pdfcompressor.service.BatchCompressionService;
+import com.pdfcompressor.service.JobService;
 import com.pdfcompressor.service.PDFCompressorService;
+import com.pdfcompressor.service.StoredUpload;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
@@ -23,10 +31,20 @@ import java.util.Map;
 public class PDFCompressorController {
 
     private final PDFCompressorService pdfCompressorService;
+    private final BatchCompressionService batchCompressionService;
+    private final JobService jobService;
+    private final ObjectMapper objectMapper;
+    private final FileDownloadHandler fileDownloadHandler;
 
     @Autowired
-    public PDFCompressorController(PDFCompressorService pdfCompressorService) {
+    public PDFCompressorController(PDFCompressorService pdfCompressorService,
+                                   BatchCompressionService batchCompressionService, JobService jobService,
+                                   ObjectMapper objectMapper, FileDownloadHandler fileDownloadHandler) {
         this.pdfCompressorService = pdfCompressorService;
+        this.batchCompressionService = batchCompressionService;
+        this.jobService = jobService;
+        this.objectMapper = objectMapper;
+        this.fileDownloadHandler = fileDownloadHandler;
     }
 
     @PostMapping("/compress")
@@ -46,20 +64,7 @@ public class PDFCompressorController {
             // Compress the PDF
             String fileName = pdfCompressorService.compressPDF(file, quality);
             
-            // Get the size of the original and compressed files
-            long originalSize = pdfCompressorService.getOriginalFileSize(fileName);
-            long compressedSize = pdfCompressorService.getCompressedFileSize(fileName);
-            
-            // Create response
-            CompressionResponse response = new CompressionResponse(
-                true,
-                fileName,
-                originalSize,
-                compressedSize,
-                "PDF compressed successfully"
-            );
-            
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(buildResponse(fileName));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError()
@@ -67,24 +72,97 @@ public class PDFCompressorController {
         }
     }
 
-    @GetMapping("/download/{fileName:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PostMapping("/compress/async")
+    public ResponseEntity<JobStatus> compressPDFAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("compressionLevel") int compressionLevel) {
+        
         try {
-            Path filePath = pdfCompressorService.getCompressedFilePath(fileName);
-            Resource resource = new UrlResource(filePath.toUri());
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().equals("application/pdf")) {
+                return ResponseEntity.badRequest().body(new JobStatus(null, "PDF", JobStatus.FAILED, "Invalid file"));
+            }
+
+            // Convert compression level to quality (0-1)
+            float quality = Math.max(0.1f, 1 - (compressionLevel / 100.0f));
             
-            if (resource.exists()) {
-                return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_PDF)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = pdfCompressorService.saveUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.PDF, upload,
+                j -> buildResponse(pdfCompressorService.compressStoredPDF(upload, quality)));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "PDF", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "PDF", JobStatus.FAILED, "Error: " + e.getMessage()));
+        }
+    }
+
+    // Many PDFs, as separate "files" parts or one ZIP, returned as a ZIP that is streamed while they finish.
+    // Nothing is left in uploads/ or outputs/ afterwards, so there is nothing to download or delete later.
+    @PostMapping("/compress/batch")
+    public ResponseEntity<StreamingResponseBody> compressBatch(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam("compressionLevel") int compressionLevel) {
+        
+        try {
+            if (files.isEmpty() || files.stream().allMatch(MultipartFile::isEmpty)) {
+                return batchError(HttpStatus.BAD_REQUEST, "No files");
             }
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+
+            // Convert compression level to quality (0-1)
+            float quality = Math.max(0.1f, 1 - (compressionLevel / 100.0f));
+            
+            // Stored now, the multipart data does not outlive this request; compression runs while the body streams
+            List<BatchCompressionService.BatchItem> items = batchCompressionService.storeBatch(files);
+            StreamingResponseBody body = out -> batchCompressionService.writeCompressedZip(items, quality, out);
+            
+            return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"compressed.zip\"")
+                .body(body);
+        } catch (IllegalArgumentException e) {
+            return batchError(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return batchError(HttpStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getMessage());
         }
     }
+
+    // Streaming endpoints can only return a streaming body, so errors are serialized here
+    private ResponseEntity<StreamingResponseBody> batchError(HttpStatus status, String message) {
+        CompressionResponse response = new CompressionResponse(false, null, 0, 0, message);
+        return ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(out -> out.write(objectMapper.writeValueAsBytes(response)));
+    }
+
+    private CompressionResponse buildResponse(String fileName) throws IOException {
+        // Get the size of the original and compressed files
+        long originalSize = pdfCompressorService.getOriginalFileSize(fileName);
+        long compressedSize = pdfCompressorService.getCompressedFileSize(fileName);
+        
+        // Create response
+        return new CompressionResponse(
+            true,
+            fileName,
+            originalSize,
+            compressedSize,
+            "PDF compressed successfully"
+        );
+    }
+
+    @GetMapping("/download/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path filePath = pdfCompressorService.getCompressedFilePath(fileName);
+        fileDownloadHandler.serve(filePath, "application/pdf", fileName, request, response);
+    }
     
     @DeleteMapping("/delete/{fileName:.+}")
     public ResponseEntity<Map<String, Object>> deleteFile(@PathVariable String fileName) {
@@ -2,21 +2,24 @@ package com.pdfcompressor.controller;
 
 
 import com.pdfcompressor.model.CompressionResponse;
+import com.pdfcompressor.model.JobStatus;
+import com.pdfcompressor.model.VideoProgress;
+import com.pdfcompressor.service.JobService;
+import com.pdfcompressor.service.StoredUpload;
 import com.pdfcompressor.service.VideoCompressorService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/video")
@@ -24,40 +27,45 @@ import java.util.Map;
 public class VideoCompressorController {
 
     private final VideoCompressorService videoCompressorService;
+    private final JobService jobService;
+    private final FileDownloadHandler fileDownloadHandler;
 
     @Autowired
-    public VideoCompressorController(VideoCompressorService videoCompressorService) {
+    public VideoCompressorController(VideoCompressorService videoCompressorService, JobService jobService,
+            FileDownloadHandler fileDownloadHandler) {
         this.videoCompressorService = videoCompressorService;
+        this.jobService = jobService;
+        this.fileDownloadHandler = fileDownloadHandler;
     }
 
     @PostMapping("/compress")
     public ResponseEntity<CompressionResponse> compressVideo(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("compressionLevel") int compressionLevel) {
+            @RequestParam("compressionLevel") int compressionLevel,
+            @RequestParam(value = "maxResolution", defaultValue = "0") int maxResolution,
+            @RequestParam(value = "targetSizeMb", defaultValue = "0") double targetSizeMb) {
         
         try {
             // Validate file
             if (file.isEmpty() || !file.getContentType().startsWith("video/")) {
                 return ResponseEntity.badRequest().body(new CompressionResponse(false, null, 0, 0, "Invalid file"));
             }
+            if (maxResolution < 0) {
+                return ResponseEntity.badRequest().body(
+                    new CompressionResponse(false, null, 0, 0, "maxResolution must not be negative."));
+            }
+            if (targetSizeMb < 0) {
+                return ResponseEntity.badRequest().body(
+                    new CompressionResponse(false, null, 0, 0, "targetSizeMb must not be negative."));
+            }
 
             // Compress the video
-            String fileName = videoCompressorService.compressVideo(file, compressionLevel);
-            
-            // Get the size of the original and compressed files
-            long originalSize = videoCompressorService.getOriginalFileSize(fileName);
-            long compressedSize = videoCompressorService.getCompressedFileSize(fileName);
-            
-            // Create response
-            CompressionResponse response = new CompressionResponse(
-                true,
-                fileName,
-                originalSize,
-                compressedSize,
-                "Video compressed successfully"
-            );
+            String fileName = videoCompressorService.compressVideo(file, compressionLevel, maxResolution,
+                toBytes(targetSizeMb));
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(buildResponse(fileName));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new CompressionResponse(false, null, 0, 0, e.getMessage()));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError()
@@ -65,27 +73,74 @@ public class VideoCompressorController {
         }
     }
 
-    @GetMapping("/download/{fileName:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PostMapping("/compress/async")
+    public ResponseEntity<JobStatus> compressVideoAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("compressionLevel") int compressionLevel,
+            @RequestParam(value = "maxResolution", defaultValue = "0") int maxResolution,
+            @RequestParam(value = "targetSizeMb", defaultValue = "0") double targetSizeMb) {
+        
         try {
-            Path filePath = videoCompressorService.getCompressedFilePath(fileName);
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (resource.exists()) {
-                // Determine the content type based on file extension
-                String contentType = determineContentType(fileName);
-                
-                return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().startsWith("video/")) {
+                return ResponseEntity.badRequest().body(new JobStatus(null, "VIDEO", JobStatus.FAILED, "Invalid file"));
             }
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+            if (maxResolution < 0) {
+                return ResponseEntity.badRequest()
+                    .body(new JobStatus(null, "VIDEO", JobStatus.FAILED, "maxResolution must not be negative."));
+            }
+            if (targetSizeMb < 0) {
+                return ResponseEntity.badRequest()
+                    .body(new JobStatus(null, "VIDEO", JobStatus.FAILED, "targetSizeMb must not be negative."));
+            }
+
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = videoCompressorService.saveUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.VIDEO, upload, j -> {
+                VideoProgress progress = new VideoProgress();
+                j.setVideoProgress(progress);
+                return buildResponse(videoCompressorService.compressStoredVideo(upload, compressionLevel, maxResolution,
+                    toBytes(targetSizeMb), progress));
+            });
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "VIDEO", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "VIDEO", JobStatus.FAILED, "Error: " + e.getMessage()));
         }
     }
+
+    // 0 leaves the size to the compression level
+    private static long toBytes(double megabytes) {
+        return (long) (megabytes * 1024 * 1024);
+    }
+
+    private CompressionResponse buildResponse(String fileName) throws IOException {
+        // Get the size of the original and compressed files
+        long originalSize = videoCompressorService.getOriginalFileSize(fileName);
+        long compressedSize = videoCompressorService.getCompressedFileSize(fileName);
+        
+        // Create response
+        return new CompressionResponse(
+            true,
+            fileName,
+            originalSize,
+            compressedSize,
+            "Video compressed successfully"
+        );
+    }
+
+    @GetMapping("/download/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path filePath = videoCompressorService.getCompressedFilePath(fileName);
+        fileDownloadHandler.serve(filePath, determineContentType(fileName), fileName, request, response);
+    }
     
     @DeleteMapping("/delete/{fileName:.+}")
     public ResponseEntity<Map<String, Object>> deleteFile(@PathVariable String fileName) {
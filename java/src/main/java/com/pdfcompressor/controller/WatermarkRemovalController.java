@@ -1,20 +1,23 @@
 package com.pdfcompressor.controller;
 
+import com.pdfcompressor.model.JobStatus;
 import com.pdfcompressor.model.WatermarkRemovalResponse;
 import com.pdfcompressor.service.WatermarkRemovalService;
+import com.pdfcompressor.service.JobService;
+import com.pdfcompressor.service.StoredUpload;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/watermark")
@@ -22,17 +25,23 @@ import java.util.Map;
 public class WatermarkRemovalController {
 
     private final WatermarkRemovalService watermarkRemovalService;
+    private final JobService jobService;
+    private final FileDownloadHandler fileDownloadHandler;
 
     @Autowired
-    public WatermarkRemovalController(WatermarkRemovalService watermarkRemovalService) {
+    public WatermarkRemovalController(WatermarkRemovalService watermarkRemovalService, JobService jobService,
+            FileDownloadHandler fileDownloadHandler) {
         this.watermarkRemovalService = watermarkRemovalService;
+        this.jobService = jobService;
+        this.fileDownloadHandler = fileDownloadHandler;
     }
 
     @PostMapping("/remove/image")
     public ResponseEntity<WatermarkRemovalResponse> removeWatermarkFromImage(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "threshold", defaultValue = "200") int threshold,
-            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance) {
+            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance,
+            @RequestParam(value = "edgeRadius", defaultValue = "5") int edgeRadius) {
         
         try {
             // Validate file
@@ -41,9 +50,14 @@ public class WatermarkRemovalController {
                     new WatermarkRemovalResponse(false, null, "image", "Invalid file. Please upload an image file.")
                 );
             }
+            if (edgeRadius < 0) {
+                return ResponseEntity.badRequest().body(
+                    new WatermarkRemovalResponse(false, null, "image", "edgeRadius must not be negative.")
+                );
+            }
             
             // Process the image to remove watermark
-            String fileName = watermarkRemovalService.removeWatermarkFromImage(file, threshold, tolerance);
+            String fileName = watermarkRemovalService.removeWatermarkFromImage(file, threshold, tolerance, edgeRadius);
             
             // Create response
             WatermarkRemovalResponse response = new WatermarkRemovalResponse(
@@ -65,7 +79,8 @@ public class WatermarkRemovalController {
     public ResponseEntity<WatermarkRemovalResponse> removeWatermarkFromPDF(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "threshold", defaultValue = "200") int threshold,
-            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance) {
+            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance,
+            @RequestParam(value = "edgeRadius", defaultValue = "5") int edgeRadius) {
         
         try {
             // Validate file
@@ -74,9 +89,14 @@ public class WatermarkRemovalController {
                     new WatermarkRemovalResponse(false, null, "pdf", "Invalid file. Please upload a PDF file.")
                 );
             }
+            if (edgeRadius < 0) {
+                return ResponseEntity.badRequest().body(
+                    new WatermarkRemovalResponse(false, null, "pdf", "edgeRadius must not be negative.")
+                );
+            }
             
             // Process the PDF to remove watermark
-            String fileName = watermarkRemovalService.removeWatermarkFromPDF(file, threshold, tolerance);
+            String fileName = watermarkRemovalService.removeWatermarkFromPDF(file, threshold, tolerance, edgeRadius);
             
             // Create response
             WatermarkRemovalResponse response = new WatermarkRemovalResponse(
@@ -94,27 +114,94 @@ public class WatermarkRemovalController {
         }
     }
 
-    @GetMapping("/download/{fileName:.+}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    @PostMapping("/remove/image/async")
+    public ResponseEntity<JobStatus> removeWatermarkFromImageAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "threshold", defaultValue = "200") int threshold,
+            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance,
+            @RequestParam(value = "edgeRadius", defaultValue = "5") int edgeRadius) {
+        
         try {
-            Path filePath = watermarkRemovalService.getProcessedFilePath(fileName);
-            Resource resource = new UrlResource(filePath.toUri());
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().startsWith("image/")) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Invalid file. Please upload an image file.")
+                );
+            }
+            if (edgeRadius < 0) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "WATERMARK", JobStatus.FAILED, "edgeRadius must not be negative.")
+                );
+            }
             
-            if (resource.exists()) {
-                // Determine content type based on file extension
-                String contentType = determineContentType(fileName);
-                
-                return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = watermarkRemovalService.saveImageUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.WATERMARK, upload, j -> new WatermarkRemovalResponse(
+                true,
+                watermarkRemovalService.removeWatermarkFromStoredImage(upload, threshold, tolerance, edgeRadius),
+                "image",
+                "Watermark removed from image successfully"
+            ));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Error: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/remove/pdf/async")
+    public ResponseEntity<JobStatus> removeWatermarkFromPDFAsync(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "threshold", defaultValue = "200") int threshold,
+            @RequestParam(value = "tolerance", defaultValue = "30") int tolerance,
+            @RequestParam(value = "edgeRadius", defaultValue = "5") int edgeRadius) {
+        
+        try {
+            // Validate file
+            if (file.isEmpty() || !file.getContentType().equals("application/pdf")) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Invalid file. Please upload a PDF file.")
+                );
+            }
+            if (edgeRadius < 0) {
+                return ResponseEntity.badRequest().body(
+                    new JobStatus(null, "WATERMARK", JobStatus.FAILED, "edgeRadius must not be negative.")
+                );
             }
-        } catch (MalformedURLException e) {
-            return ResponseEntity.badRequest().build();
+            
+            // Store the upload now, the multipart data does not outlive this request
+            StoredUpload upload = watermarkRemovalService.savePdfUpload(file);
+            
+            JobStatus job = jobService.submit(JobService.JobType.WATERMARK, upload, j -> new WatermarkRemovalResponse(
+                true,
+                watermarkRemovalService.removeWatermarkFromStoredPDF(upload, threshold, tolerance, edgeRadius),
+                "pdf",
+                "Watermark removed from PDF successfully"
+            ));
+            
+            return ResponseEntity.accepted().body(job);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Too many queued jobs, try again later"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError()
+                .body(new JobStatus(null, "WATERMARK", JobStatus.FAILED, "Error: " + e.getMessage()));
         }
     }
+
+    @GetMapping("/download/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Path filePath = watermarkRemovalService.getProcessedFilePath(fileName);
+        fileDownloadHandler.serve(filePath, determineContentType(fileName), fileName, request, response);
+    }
     
     @DeleteMapping("/delete/{fileName:.+}")
     public ResponseEntity<Map<String, Object>> deleteFile(@PathVariable String fileName) {
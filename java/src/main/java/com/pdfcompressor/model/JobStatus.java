@@ -0,0 +1,114 @@
+package com.pdfcompressor.model;
+
+public class JobStatus {
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    // Updated by the worker thread while clients poll, hence volatile
+    private volatile String jobId;
+    private volatile String type;
+    private volatile String state;
+    private volatile double progress;
+    private volatile Object result;
+    private volatile String message;
+    private volatile long submittedAt;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile VideoProgress videoProgress;
+
+    public JobStatus(String jobId, String type, String state, String message) {
+        this.jobId = jobId;
+        this.type = type;
+        this.state = state;
+        this.message = message;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    // Getters and setters
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public double getProgress() {
+        // Video jobs count their frames while they run
+        VideoProgress video = videoProgress;
+        if (video != null && progress < 1.0) {
+            return video.getFraction();
+        }
+        return progress;
+    }
+
+    public void setProgress(double progress) {
+        this.progress = progress;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public void setSubmittedAt(long submittedAt) {
+        this.submittedAt = submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public VideoProgress getVideoProgress() {
+        return videoProgress;
+    }
+
+    public void setVideoProgress(VideoProgress videoProgress) {
+        this.videoProgress = videoProgress;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pdfcompressor.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live counters of one video encode, updated per frame by the encoding threads while clients poll
+public class VideoProgress {
+
+    private final AtomicLong encodedFrames = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private volatile long totalFrames;
+    private volatile long encodedBytes;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    public void start(long totalFrames) {
+        this.totalFrames = totalFrames;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    public void finish(long encodedBytes) {
+        this.encodedBytes = encodedBytes;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    // Time spent in the grabber and in the recorder for one frame (audio frames count 0 video frames)
+    public void addFrames(int frames, long decodeNanos, long encodeNanos) {
+        this.encodedFrames.addAndGet(frames);
+        this.decodeNanos.addAndGet(decodeNanos);
+        this.encodeNanos.addAndGet(encodeNanos);
+    }
+
+    public long getTotalFrames() {
+        return totalFrames;
+    }
+
+    public long getEncodedFrames() {
+        return encodedFrames.get();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    public void setEncodedBytes(long encodedBytes) {
+        this.encodedBytes = encodedBytes;
+    }
+
+    public long getDecodeMillis() {
+        return decodeNanos.get() / 1_000_000;
+    }
+
+    public long getEncodeMillis() {
+        return encodeNanos.get() / 1_000_000;
+    }
+
+    public double getFraction() {
+        if (finishedAt > 0) {
+            return 1.0;
+        }
+        long total = totalFrames;
+        return total > 0 ? Math.min(1.0, (double) encodedFrames.get() / total) : 0.0;
+    }
+
+    public double getFramesPerSecond() {
+        if (startedAt == 0) {
+            return 0.0;
+        }
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - startedAt);
+        return encodedFrames.get() * 1000.0 / elapsed;
+    }
+
+    // -1 while no estimate is possible yet
+    public long getEstimatedSecondsRemaining() {
+        if (finishedAt > 0) {
+            return 0;
+        }
+        double fps = getFramesPerSecond();
+        long total = totalFrames;
+        if (fps <= 0 || total <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, total - encodedFrames.get()) / fps);
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+}
@@ -0,0 +1,354 @@
+package com.pdfcompressor.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// Compresses many PDFs in one request. The PDFs come as separate parts or inside one ZIP; they are compressed
+// concurrently on a pool shared by all batches and written to a ZIP as each one finishes, so the response
+// starts before the last file is done. Uploads and outputs of a batch are deleted once they are in the ZIP.
+@Service
+public class BatchCompressionService {
+
+    private static final String REPORT_NAME = "batch-report.csv";
+
+    // Progress of each file of a batch, see writeCompressedZip
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final PDFCompressorService pdfCompressorService;
+    private final ExecutorService batchPool;
+    private final int maxFiles;
+    private final long maxExpandedBytes;
+
+    public BatchCompressionService(
+            PDFCompressorService pdfCompressorService,
+            @Value("${batch.threads:0}") int threads,
+            @Value("${batch.max-files:500}") int maxFiles,
+            @Value("${batch.max-expanded-mb:2048}") long maxExpandedMb) {
+        this.pdfCompressorService = pdfCompressorService;
+        this.maxFiles = maxFiles;
+        this.maxExpandedBytes = maxExpandedMb * 1024 * 1024;
+
+        // 0 means one file per core at a time
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.batchPool = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchPool.shutdownNow();
+    }
+
+    // One PDF of a batch: the name it is returned under and the stored upload
+    public static final class BatchItem {
+        private final String entryName;
+        private final StoredUpload upload;
+
+        BatchItem(String entryName, StoredUpload upload) {
+            this.entryName = entryName;
+            this.upload = upload;
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public StoredUpload getUpload() {
+            return upload;
+        }
+    }
+
+    private static final class Result {
+        final int index;
+        final String fileName;
+        final String error;
+
+        Result(int index, String fileName, String error) {
+            this.index = index;
+            this.fileName = fileName;
+            this.error = error;
+        }
+    }
+
+    // Stores every PDF of the request before it returns, as the multipart data does not outlive the request.
+    // Throws IllegalArgumentException for files that are neither PDF nor ZIP and for batches over the limits.
+    public List<BatchItem> storeBatch(List<MultipartFile> files) throws IOException {
+        String batchId = UUID.randomUUID().toString().substring(0, 8);
+        List<BatchItem> items = new ArrayList<>();
+        Set<String> entryNames = new HashSet<>();
+        long[] expandedBytes = {0};
+        boolean stored = false;
+        try {
+            for (MultipartFile file : files) {
+                String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : "document.pdf";
+                if (isZip(file.getContentType(), name)) {
+                    storeZipEntries(file, batchId, items, entryNames, expandedBytes);
+                } else if (isPdf(file.getContentType(), name)) {
+                    checkCount(items.size() + 1);
+                    StoredUpload upload = pdfCompressorService.saveUpload(file, batchFileId(batchId, items.size()));
+                    items.add(new BatchItem(entryName(name, entryNames), upload));
+                } else {
+                    throw new IllegalArgumentException("Not a PDF or ZIP file: " + name);
+                }
+            }
+            if (items.isEmpty()) {
+                throw new IllegalArgumentException("The batch contains no PDF files");
+            }
+            stored = true;
+            return items;
+        } finally {
+            if (!stored) {
+                for (BatchItem item : items) {
+                    deleteQuietly(item.upload.getPath());
+                }
+            }
+        }
+    }
+
+    private void storeZipEntries(MultipartFile zipFile, String batchId, List<BatchItem> items, Set<String> entryNames,
+                                 long[] expandedBytes) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(zipFile.getInputStream())) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String path = entry.getName();
+                String name = path.substring(path.lastIndexOf('/') + 1);
+                // Folders and the resource forks macOS adds to archives are not documents
+                if (entry.isDirectory() || path.startsWith("__MACOSX/") || name.startsWith("._")
+                        || !name.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+                    continue;
+                }
+                checkCount(items.size() + 1);
+                // The declared sizes of an entry can be forged, so the budget is enforced on the bytes read
+                LimitedInputStream limited = new LimitedInputStream(zip, maxExpandedBytes - expandedBytes[0]);
+                StoredUpload upload = pdfCompressorService.saveUpload(limited, batchFileId(batchId, items.size()));
+                items.add(new BatchItem(entryName(name, entryNames), upload));
+                expandedBytes[0] += upload.getSize();
+            }
+        }
+    }
+
+    // Compresses all items and writes the ZIP to out, one entry per PDF in the order they finish, then a CSV
+    // report with the sizes of each file. Files that cannot be compressed are listed there with the error.
+    // If the client goes away, the remaining work is cancelled and its files are deleted.
+    public void writeCompressedZip(List<BatchItem> items, float quality, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        AtomicBoolean aborted = new AtomicBoolean();
+        AtomicIntegerArray states = new AtomicIntegerArray(items.size());
+        CompletionService<Result> completion = new ExecutorCompletionService<>(batchPool);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            int index = i;
+            futures.add(completion.submit(() -> compress(items.get(index), index, quality, states, aborted)));
+        }
+
+        String[] reportLines = new String[items.size()];
+        boolean[] written = new boolean[items.size()];
+        long originalTotal = 0;
+        long compressedTotal = 0;
+        int failed = 0;
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            // PDFs are mostly compressed data already; a fast level keeps the stream from lagging behind
+            zip.setLevel(Deflater.BEST_SPEED);
+            for (int done = 0; done < items.size(); done++) {
+                Result result = completion.take().get();
+                BatchItem item = items.get(result.index);
+                long originalSize = item.upload.getSize();
+                if (result.error != null) {
+                    failed++;
+                    reportLines[result.index] = csv(item.entryName) + "," + originalSize + ",,"
+                        + csv("error: " + result.error);
+                } else {
+                    Path output = pdfCompressorService.getCompressedFilePath(result.fileName);
+                    zip.putNextEntry(new ZipEntry(item.entryName));
+                    long compressedSize = Files.copy(output, zip);
+                    zip.closeEntry();
+                    // Hand each finished entry to the client right away
+                    zip.flush();
+                    originalTotal += originalSize;
+                    compressedTotal += compressedSize;
+                    reportLines[result.index] = csv(item.entryName) + "," + originalSize + "," + compressedSize + ",ok";
+                }
+                deleteFiles(item);
+                written[result.index] = true;
+            }
+
+            zip.putNextEntry(new ZipEntry(REPORT_NAME));
+            StringBuilder report = new StringBuilder("file,original_bytes,compressed_bytes,status\n");
+            for (String line : reportLines) {
+                report.append(line).append('\n');
+            }
+            zip.write(report.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            zip.finish();
+            zip.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch compression interrupted");
+        } catch (ExecutionException e) {
+            // compress() reports its own failures, so this is unexpected
+            throw new IOException("Batch compression failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (int i = 0; i < items.size(); i++) {
+                if (!written[i]) {
+                    aborted.set(true);
+                    futures.get(i).cancel(false);
+                    // PDFBox reads the upload lazily, so a file being compressed is left to its task to delete
+                    if (states.getAndSet(i, DONE) != RUNNING) {
+                        deleteFiles(items.get(i));
+                    }
+                }
+            }
+        }
+
+        System.out.println("Batch of " + items.size() + " PDFs: " + (items.size() - failed) + " compressed, "
+            + failed + " failed, " + originalTotal + " -> " + compressedTotal + " bytes in "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Result compress(BatchItem item, int index, float quality, AtomicIntegerArray states, AtomicBoolean aborted) {
+        if (!states.compareAndSet(index, PENDING, RUNNING)) {
+            return new Result(index, null, "cancelled");
+        }
+        try {
+            return new Result(index, pdfCompressorService.compressStoredPDF(item.upload, quality), null);
+        } catch (Exception e) {
+            return new Result(index, null, e.getMessage());
+        } finally {
+            states.set(index, DONE);
+            // The writer gave up while this file was being compressed and left its files to this task
+            if (aborted.get()) {
+                deleteFiles(item);
+            }
+        }
+    }
+
+    private void deleteFiles(BatchItem item) {
+        deleteQuietly(item.upload.getPath());
+        deleteQuietly(pdfCompressorService.getCompressedFilePath(item.upload.getFileId() + "_compressed.pdf"));
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Could not delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void checkCount(int count) {
+        if (count > maxFiles) {
+            throw new IllegalArgumentException("A batch can contain at most " + maxFiles + " PDF files");
+        }
+    }
+
+    private static String batchFileId(String batchId, int index) {
+        return "batch-" + batchId + "-" + index;
+    }
+
+    // The file name without any folder, as <name>_compressed.pdf, numbered when two files share a name
+    private static String entryName(String originalName, Set<String> used) {
+        String name = originalName.substring(Math.max(originalName.lastIndexOf('/'), originalName.lastIndexOf('\\')) + 1);
+        if (name.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        if (name.isBlank()) {
+            name = "document";
+        }
+        String candidate = name + "_compressed.pdf";
+        for (int n = 2; !used.add(candidate); n++) {
+            candidate = name + " (" + n + ")_compressed.pdf";
+        }
+        return candidate;
+    }
+
+    private static boolean isZip(String contentType, String name) {
+        return "application/zip".equals(contentType) || "application/x-zip-compressed".equals(contentType)
+            || name.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static boolean isPdf(String contentType, String name) {
+        return "application/pdf".equals(contentType) || name.toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    private static String csv(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    // Fails once more than the remaining budget of expanded bytes has been read, which stops ZIP bombs
+    private final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        // The ZIP stream stays open for the next entry
+        @Override
+        public void close() {
+        }
+
+        private void count(long bytes) {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new IllegalArgumentException("The PDFs in the ZIP are larger than "
+                    + (maxExpandedBytes / (1024 * 1024)) + " MB in total");
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.pdfcompressor.service;
 
+import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
@@ -10,9 +11,9 @@ import fr.opensagres.poi.xwpf.converter.pdf.PdfOptions;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,7 +26,10 @@ public class DocumentConversionService {
     private final Path uploadDir = Paths.get("uploads");
     private final Path outputDir = Paths.get("outputs");
 
-    public DocumentConversionService() {
+    private final UploadStorageService uploadStorageService;
+
+    public DocumentConversionService(UploadStorageService uploadStorageService) {
+        this.uploadStorageService = uploadStorageService;
         try {
             Files.createDirectories(uploadDir);
             Files.createDirectories(outputDir);
@@ -35,17 +39,27 @@ public class DocumentConversionService {
     }
 
     public String convertPdfToWord(MultipartFile file) throws IOException {
+        StoredUpload upload = savePdfUpload(file);
+        return convertStoredPdfToWord(upload);
+    }
+
+    public StoredUpload savePdfUpload(MultipartFile file) throws IOException {
         // Generate unique file names
     	String fileId = file.getOriginalFilename();
         Path inputPath = uploadDir.resolve(fileId + ".pdf");
-        Path outputPath = outputDir.resolve(fileId + ".docx");
 
         // Save the uploaded file
-        Files.write(inputPath, file.getBytes());
+        return uploadStorageService.store(file, fileId, inputPath);
+    }
+
+    public String convertStoredPdfToWord(StoredUpload upload) throws IOException {
+        String fileId = upload.getFileId();
+        Path inputPath = upload.getPath();
+        Path outputPath = outputDir.resolve(fileId + ".docx");
 
         try {
             // Load the PDF document
-            PDDocument document = PDDocument.load(inputPath.toFile());
+            PDDocument document = Loader.loadPDF(inputPath.toFile());
             
             // Create a PDF text stripper
             PDFTextStripper stripper = new PDFTextStripper();
@@ -68,9 +82,8 @@ public class DocumentConversionService {
             }
             
             // Save the Word document
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            try (OutputStream out = Files.newOutputStream(outputPath)) {
                 docx.write(out);
-                Files.write(outputPath, out.toByteArray());
                 docx.close();
             }
             
@@ -82,29 +95,39 @@ public class DocumentConversionService {
     }
 
     public String convertWordToPdf(MultipartFile file) throws IOException {
+        StoredUpload upload = saveWordUpload(file);
+        return convertStoredWordToPdf(upload);
+    }
+
+    public StoredUpload saveWordUpload(MultipartFile file) throws IOException {
         // Generate unique file names
         String fileId = file.getOriginalFilename();
         Path inputPath = uploadDir.resolve(fileId + ".docx");
-        Path outputPath = outputDir.resolve(fileId + ".pdf");
 
         // Save the uploaded file
-        Files.write(inputPath, file.getBytes());
+        return uploadStorageService.store(file, fileId, inputPath);
+    }
+
+    public String convertStoredWordToPdf(StoredUpload upload) throws IOException {
+        String fileId = upload.getFileId();
+        Path inputPath = upload.getPath();
+        Path outputPath = outputDir.resolve(fileId + ".pdf");
 
         try {
             // Load the Word document
-            XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(file.getBytes()));
+            XWPFDocument document;
+            try (InputStream in = Files.newInputStream(inputPath)) {
+                document = new XWPFDocument(in);
+            }
             
-            // Convert to PDF
+            // Convert to PDF, writing straight to the output file
             PdfOptions options = PdfOptions.create();
-            ByteArrayOutputStream pdfStream = new ByteArrayOutputStream();
-            PdfConverter.getInstance().convert(document, pdfStream, options);
-            
-            // Save the PDF
-            Files.write(outputPath, pdfStream.toByteArray());
+            try (OutputStream pdfStream = Files.newOutputStream(outputPath)) {
+                PdfConverter.getInstance().convert(document, pdfStream, options);
+            }
             
             // Close resources
             document.close();
-            pdfStream.close();
             
             return fileId + ".pdf";
         } catch (Exception e) {
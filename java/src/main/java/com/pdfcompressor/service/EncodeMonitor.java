@@ -0,0 +1,66 @@
+package com.pdfcompressor.service;
+
+import com.pdfcompressor.model.VideoProgress;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One compression's view onto VideoMetrics. The encode loops report every frame here, from as many threads
+// as there are parts; the bytes written so far are read from the files being encoded, at most twice a second.
+class EncodeMonitor implements AutoCloseable {
+
+    private static final long SIZE_REFRESH_NANOS = 500_000_000L;
+
+    private final VideoMetrics metrics;
+    private final VideoProgress progress;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong lastSizeRefresh = new AtomicLong(startNanos);
+    private final List<File> outputs = new CopyOnWriteArrayList<>();
+    private volatile boolean completed;
+
+    EncodeMonitor(VideoMetrics metrics, VideoProgress progress) {
+        this.metrics = metrics;
+        this.progress = progress;
+    }
+
+    // A file the encode is writing; its size counts towards the encoded bytes while it grows
+    void addOutput(File file) {
+        outputs.add(file);
+    }
+
+    // Reports one grab/record step; frames is 0 for audio
+    void frame(int frames, long decodeNanos, long encodeNanos) {
+        metrics.recordFrame(frames, decodeNanos, encodeNanos);
+        progress.addFrames(frames, decodeNanos, encodeNanos);
+
+        long now = System.nanoTime();
+        long last = lastSizeRefresh.get();
+        if (now - last >= SIZE_REFRESH_NANOS && lastSizeRefresh.compareAndSet(last, now)) {
+            long bytes = 0;
+            for (File output : outputs) {
+                bytes += output.length();
+            }
+            progress.setEncodedBytes(bytes);
+        }
+    }
+
+    // path names how the video was produced (single, segmented, remux, keep) and tags the compression timer
+    void complete(String path, File outputFile) {
+        completed = true;
+        finish(path, outputFile.length());
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            finish("failed", progress.getEncodedBytes());
+        }
+    }
+
+    private void finish(String path, long outputBytes) {
+        progress.finish(outputBytes);
+        metrics.finish(progress, path, System.nanoTime() - startNanos, outputBytes);
+    }
+}
@@ -0,0 +1,155 @@
+package com.pdfcompressor.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Chooses the H.264 encoder options for each video from a per-deployment CPU budget.
+// The compression level asks for a preset and CRF; if that preset would cost more CPU time per minute of
+// video than the budget allows, faster presets are taken until it fits, and the CRF is raised a little to
+// make up for the weaker compression. Encoder threads come from a fixed budget (one per core by default): each
+// encode takes up to its share of the threads that are free when it starts, never more than a per-encode cap,
+// and gives them back when it is done, so encodes running together share the cores instead of each starting
+// one thread per core.
+@Component
+public class EncoderPolicy {
+
+    // x264 presets from fastest to slowest, with their encode time relative to medium
+    private static final String[] PRESETS =
+        {"ultrafast", "superfast", "veryfast", "faster", "fast", "medium", "slow", "slower", "veryslow"};
+    private static final double[] RELATIVE_COST = {0.15, 0.25, 0.4, 0.6, 0.8, 1.0, 1.6, 2.8, 6.5};
+    private static final int MEDIUM = 5;
+
+    // Pixels per second the medium cost is measured at: 1080p, 30 fps
+    private static final double REFERENCE_PIXEL_RATE = 1920.0 * 1080 * 30;
+
+    // How long an encode waits for a free thread before it runs on one thread outside the budget
+    private static final long THREAD_WAIT_SECONDS = 5;
+
+    private final double cpuBudget;
+    private final double mediumCost;
+    private final String tune;
+    private final int totalThreads;
+    private final int maxThreadsPerEncode;
+    // Encoder threads not held by any lease; fair, so a waiting encode is not overtaken by later ones
+    private final Semaphore freeThreads;
+    private final AtomicInteger activeEncodes = new AtomicInteger();
+
+    public EncoderPolicy(
+            @Value("${video.encoder.cpu-budget:180}") double cpuBudget,
+            @Value("${video.encoder.medium-cost:60}") double mediumCost,
+            @Value("${video.encoder.tune:}") String tune,
+            @Value("${video.encoder.threads:0}") int threads,
+            @Value("${video.encoder.max-threads-per-encode:0}") int maxThreadsPerEncode) {
+        this.cpuBudget = cpuBudget;
+        this.mediumCost = mediumCost;
+        this.tune = tune;
+        // 0 means one thread per core
+        this.totalThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.freeThreads = new Semaphore(totalThreads, true);
+        // 0 means half the budget, so a second encode starts with threads of its own
+        this.maxThreadsPerEncode = maxThreadsPerEncode > 0
+            ? Math.min(maxThreadsPerEncode, totalThreads)
+            : Math.max(1, totalThreads / 2);
+    }
+
+    // Encoder options for one video
+    static final class Choice {
+        final String preset;
+        final int crf;
+        final String tune;
+        final int threads;
+
+        Choice(String preset, int crf, String tune, int threads) {
+            this.preset = preset;
+            this.crf = crf;
+            this.tune = tune;
+            this.threads = threads;
+        }
+
+        Choice withThreads(int threads) {
+            return new Choice(preset, crf, tune, threads);
+        }
+    }
+
+    // Preset, CRF and tune for one video; its threads come from the lease taken for the encode
+    Choice choose(int compressionLevel, int width, int height, double frameRate) {
+        int wanted = presetForQuality(compressionLevel);
+        int preset = wanted;
+        if (cpuBudget > 0 && frameRate > 0) {
+            double scale = width * (double) height * frameRate / REFERENCE_PIXEL_RATE;
+            while (preset > 0 && mediumCost * RELATIVE_COST[preset] * scale > cpuBudget) {
+                preset--;
+            }
+            if (preset != wanted) {
+                System.out.println("Encoder budget of " + cpuBudget + " CPU-s per minute: preset "
+                    + PRESETS[wanted] + " lowered to " + PRESETS[preset]);
+            }
+        }
+        // Every two presets faster compress noticeably worse; one CRF step takes back about as much
+        int crf = Math.min(51, Math.max(18, 18 + (compressionLevel / 3)) + (wanted - preset) / 2);
+        return new Choice(PRESETS[preset], crf, tune, 1);
+    }
+
+    // Held while one video is encoded; its threads are fixed when it is taken, as an encoder cannot change
+    // its thread count once started, and go back to the budget when it is closed
+    final class Lease implements AutoCloseable {
+        private final int threads;
+        // Threads taken from the budget; 0 for the one-thread lease given when none came free in time
+        private final int permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(int threads, int permits) {
+            this.threads = threads;
+            this.permits = permits;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                activeEncodes.decrementAndGet();
+                freeThreads.release(permits);
+            }
+        }
+    }
+
+    // An even share of the budget among the encodes running now, capped per encode so the next one finds
+    // threads free, and taken from the threads that are free. If none come free within THREAD_WAIT_SECONDS
+    // the encode runs on one thread outside the budget rather than holding up its caller.
+    Lease acquire() throws InterruptedException {
+        int share = Math.max(1, Math.min(maxThreadsPerEncode, totalThreads / activeEncodes.incrementAndGet()));
+        int permits = 0;
+        try {
+            if (freeThreads.tryAcquire(THREAD_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                permits = 1;
+                while (permits < share && freeThreads.tryAcquire()) {
+                    permits++;
+                }
+            }
+        } catch (InterruptedException e) {
+            activeEncodes.decrementAndGet();
+            throw e;
+        }
+        if (permits == 0) {
+            System.out.println("All " + totalThreads + " encoder threads busy; encoding on one extra thread");
+        }
+        return new Lease(Math.max(1, permits), permits);
+    }
+
+    private static int presetForQuality(int compressionLevel) {
+        // Map compression level to FFmpeg presets: best quality and slowest at low levels
+        if (compressionLevel < 20) return MEDIUM + 3; // veryslow
+        if (compressionLevel < 40) return MEDIUM + 2; // slower
+        if (compressionLevel < 60) return MEDIUM;
+        if (compressionLevel < 80) return MEDIUM - 2; // faster
+        return MEDIUM - 3; // veryfast
+    }
+}
@@ -0,0 +1,214 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.javacv.Frame;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Decodes on one thread while the caller encodes on another.
+// The grabber reuses its Frame objects, so every frame is copied into one of a fixed set of pooled frames
+// before it is handed over; the encoder returns each pooled frame once recorded. The decoder can therefore
+// run at most queueDepth frames ahead, which also caps the memory a pipeline holds.
+class FramePipeline {
+
+    @FunctionalInterface
+    interface FrameSource {
+        // Returns null at the end of the input
+        Frame grab() throws Exception;
+    }
+
+    @FunctionalInterface
+    interface FrameSink {
+        // decodeNanos is the time the source took to produce the frame
+        void accept(Frame frame, long decodeNanos) throws Exception;
+    }
+
+    private static final class Slot {
+        final Frame frame = new Frame();
+        long decodeNanos;
+    }
+
+    // Marks the end of the input in the queue of decoded frames
+    private static final Slot END = new Slot();
+
+    private final ExecutorService decodePool;
+    private final int queueDepth;
+
+    // queueDepth <= 0 decodes and encodes alternately on the calling thread
+    FramePipeline(ExecutorService decodePool, int queueDepth) {
+        this.decodePool = decodePool;
+        this.queueDepth = queueDepth;
+    }
+
+    // Returns when every frame has been passed to the sink; a failure in either stage stops both
+    // and is rethrown here. The source is never called again after this returns.
+    void run(FrameSource source, FrameSink sink) throws Exception {
+        if (queueDepth <= 0) {
+            runInline(source, sink);
+            return;
+        }
+
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(queueDepth);
+        BlockingQueue<Slot> decoded = new ArrayBlockingQueue<>(queueDepth + 1);
+        for (int i = 0; i < queueDepth; i++) {
+            free.add(new Slot());
+        }
+
+        CountDownLatch decoderDone = new CountDownLatch(1);
+        Exception[] decodeFailure = new Exception[1];
+        Future<?> decoder = decodePool.submit(() -> {
+            try {
+                while (true) {
+                    Slot slot = free.take();
+                    long start = System.nanoTime();
+                    Frame frame = source.grab();
+                    if (frame == null) {
+                        break;
+                    }
+                    copy(frame, slot.frame);
+                    slot.decodeNanos = System.nanoTime() - start;
+                    decoded.put(slot);
+                }
+            } catch (InterruptedException e) {
+                // The encoder stopped; nothing is waiting for more frames
+            } catch (Exception e) {
+                decodeFailure[0] = e;
+            } finally {
+                // Room for END is always left: there are only queueDepth slots
+                decoded.offer(END);
+                decoderDone.countDown();
+            }
+        });
+
+        try {
+            Slot slot;
+            while ((slot = decoded.take()) != END) {
+                sink.accept(slot.frame, slot.decodeNanos);
+                free.put(slot);
+            }
+        } finally {
+            // Stop the decoder if the encoder failed, and never let the caller close the grabber under it
+            decoder.cancel(true);
+            decoderDone.await();
+        }
+        if (decodeFailure[0] != null) {
+            throw decodeFailure[0];
+        }
+    }
+
+    private static void runInline(FrameSource source, FrameSink sink) throws Exception {
+        while (true) {
+            long start = System.nanoTime();
+            Frame frame = source.grab();
+            if (frame == null) {
+                return;
+            }
+            sink.accept(frame, System.nanoTime() - start);
+        }
+    }
+
+    // Copies the frame's data and everything the recorder reads, reusing the target's buffers where they fit
+    private static void copy(Frame source, Frame target) {
+        target.keyFrame = source.keyFrame;
+        target.pictType = source.pictType;
+        target.imageWidth = source.imageWidth;
+        target.imageHeight = source.imageHeight;
+        target.imageDepth = source.imageDepth;
+        target.imageChannels = source.imageChannels;
+        target.imageStride = source.imageStride;
+        target.image = copyBuffers(source.image, target.image);
+        target.sampleRate = source.sampleRate;
+        target.audioChannels = source.audioChannels;
+        target.samples = copyBuffers(source.samples, target.samples);
+        target.streamIndex = source.streamIndex;
+        target.type = source.type;
+        target.timestamp = source.timestamp;
+        // The grabber's native frame is reused for the next frame, so it must not travel with the copy
+        target.opaque = null;
+        target.data = null;
+    }
+
+    private static Buffer[] copyBuffers(Buffer[] source, Buffer[] target) {
+        if (source == null) {
+            return null;
+        }
+        Buffer[] result = target != null && target.length == source.length ? target : new Buffer[source.length];
+        for (int i = 0; i < source.length; i++) {
+            result[i] = copyBuffer(source[i], result[i]);
+        }
+        return result;
+    }
+
+    // Copies the whole source buffer and keeps its position and limit. The whole buffer, not just up to the limit:
+    // for planar YUV the grabber's limit covers the luma plane only, the chroma planes follow behind it.
+    private static Buffer copyBuffer(Buffer source, Buffer target) {
+        if (source == null) {
+            return null;
+        }
+        int length = source.capacity();
+        if (target == null || !sameElementType(source, target) || target.capacity() < length) {
+            target = allocate(source, length);
+        }
+        target.clear();
+        Buffer all = source.duplicate().clear();
+        if (source instanceof ByteBuffer) {
+            ((ByteBuffer) target).put((ByteBuffer) all);
+        } else if (source instanceof ShortBuffer) {
+            ((ShortBuffer) target).put((ShortBuffer) all);
+        } else if (source instanceof FloatBuffer) {
+            ((FloatBuffer) target).put((FloatBuffer) all);
+        } else if (source instanceof IntBuffer) {
+            ((IntBuffer) target).put((IntBuffer) all);
+        } else if (source instanceof DoubleBuffer) {
+            ((DoubleBuffer) target).put((DoubleBuffer) all);
+        } else if (source instanceof LongBuffer) {
+            ((LongBuffer) target).put((LongBuffer) all);
+        } else {
+            throw new IllegalArgumentException("Unsupported frame buffer " + source.getClass().getName());
+        }
+        return target.limit(source.limit()).position(source.position());
+    }
+
+    private static boolean sameElementType(Buffer a, Buffer b) {
+        return (a instanceof ByteBuffer && b instanceof ByteBuffer)
+            || (a instanceof ShortBuffer && b instanceof ShortBuffer)
+            || (a instanceof FloatBuffer && b instanceof FloatBuffer)
+            || (a instanceof IntBuffer && b instanceof IntBuffer)
+            || (a instanceof DoubleBuffer && b instanceof DoubleBuffer)
+            || (a instanceof LongBuffer && b instanceof LongBuffer);
+    }
+
+    // Direct buffers, as the recorder hands their address to FFmpeg
+    private static Buffer allocate(Buffer like, int length) {
+        if (like instanceof ByteBuffer) {
+            return ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        }
+        if (like instanceof ShortBuffer) {
+            return ByteBuffer.allocateDirect(length * Short.BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+        if (like instanceof FloatBuffer) {
+            return ByteBuffer.allocateDirect(length * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        if (like instanceof IntBuffer) {
+            return ByteBuffer.allocateDirect(length * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        if (like instanceof DoubleBuffer) {
+            return ByteBuffer.allocateDirect(length * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        if (like instanceof LongBuffer) {
+            return ByteBuffer.allocateDirect(length * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        throw new IllegalArgumentException("Unsupported frame buffer " + like.getClass().getName());
+    }
+}
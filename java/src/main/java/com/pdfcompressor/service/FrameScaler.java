@@ -0,0 +1,46 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameFilter;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+// Scales decoded video frames to the output size with an FFmpeg filter graph before they are encoded.
+// Frames stay in planar YUV the whole way: the grabber decodes into it instead of BGR, the filter scales it,
+// and the encoder takes it without another conversion, so scaling costs one pass over the pixels.
+class FrameScaler implements AutoCloseable {
+
+    private static final int PIXEL_FORMAT = avutil.AV_PIX_FMT_YUV420P;
+
+    private final FFmpegFrameFilter filter;
+
+    FrameScaler(int sourceWidth, int sourceHeight, int width, int height, double frameRate) throws Exception {
+        filter = new FFmpegFrameFilter("scale=" + width + ":" + height + ":flags=bicubic", sourceWidth, sourceHeight);
+        filter.setPixelFormat(PIXEL_FORMAT);
+        filter.setFrameRate(frameRate);
+        filter.start();
+    }
+
+    // Must be called before the grabber is started
+    static void prepare(FFmpegFrameGrabber grabber) {
+        grabber.setPixelFormat(PIXEL_FORMAT);
+    }
+
+    // Scales one video frame and records the result; returns the number of frames written
+    int record(Frame frame, FFmpegFrameRecorder recorder) throws Exception {
+        filter.push(frame, PIXEL_FORMAT);
+        int frames = 0;
+        Frame scaled;
+        while ((scaled = filter.pull()) != null) {
+            recorder.record(scaled, PIXEL_FORMAT);
+            frames++;
+        }
+        return frames;
+    }
+
+    @Override
+    public void close() throws Exception {
+        filter.close();
+    }
+}
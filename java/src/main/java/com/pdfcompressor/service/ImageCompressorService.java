@@ -25,7 +25,12 @@ public class ImageCompressorService {
     private final Path uploadDir = Paths.get("uploads");
     private final Path outputDir = Paths.get("outputs");
 
-    public ImageCompressorService() {
+    private final UploadStorageService uploadStorageService;
+    private final ResultCacheService resultCacheService;
+
+    public ImageCompressorService(UploadStorageService uploadStorageService, ResultCacheService resultCacheService) {
+        this.uploadStorageService = uploadStorageService;
+        this.resultCacheService = resultCacheService;
         try {
             Files.createDirectories(uploadDir);
             Files.createDirectories(outputDir);
@@ -35,23 +40,62 @@ public class ImageCompressorService {
     }
 
     public String compressImage(MultipartFile file, float quality) throws IOException {
+        return compressImage(file, quality, 0, 0);
+    }
+
+    public String compressImage(MultipartFile file, float quality, long targetBytes, double targetSsim) throws IOException {
+        StoredUpload upload = saveUpload(file);
+        return compressStoredImage(upload, quality, targetBytes, targetSsim);
+    }
+
+    public StoredUpload saveUpload(MultipartFile file) throws IOException {
         // Generate unique file names
         String originalFileName = file.getOriginalFilename();
         String fileExtension = getFileExtension(originalFileName);
         String fileId = file.getOriginalFilename();
         
         Path inputPath = uploadDir.resolve(fileId + "." + fileExtension);
-        Path outputPath = outputDir.resolve(fileId + "_compressed." + fileExtension);
 
         // Save the uploaded file
-        Files.write(inputPath, file.getBytes());
+        return uploadStorageService.store(file, fileId, inputPath);
+    }
+
+    public String compressStoredImage(StoredUpload upload, float quality) throws IOException {
+        return compressStoredImage(upload, quality, 0, 0);
+    }
+
+    // targetBytes > 0 aims the output at that size, targetSsim > 0 at that similarity to the original; either
+    // replaces the quality for formats whose quality can be searched (JPEG)
+    public String compressStoredImage(StoredUpload upload, float quality, long targetBytes,
+                                      double targetSsim) throws IOException {
+        String fileId = upload.getFileId();
+        String fileExtension = getFileExtension(fileId);
+        Path inputPath = upload.getPath();
+        Path outputPath = outputDir.resolve(fileId + "_compressed." + fileExtension);
 
         // Get original file size
-        long originalSize = Files.size(inputPath);
+        long originalSize = upload.getSize();
+
+        // Same bytes compressed with the same settings before? Reuse that output. Formats that cannot be
+        // searched ignore the target and encode at the given quality, so they share the plain key
+        boolean searchTarget = (targetBytes > 0 || targetSsim > 0) && ImageQualitySearch.canSearch(fileExtension);
+        String cacheKey = searchTarget
+            ? resultCacheService.buildKey(upload, "image-compress-target", fileExtension, targetBytes, targetSsim)
+            : resultCacheService.buildKey(upload, "image-compress", fileExtension, quality);
+        if (resultCacheService.copyCachedResult(cacheKey, fileExtension, outputPath)) {
+            return fileId + "_compressed." + fileExtension;
+        }
 
         try {
             // Compress the image
-            compressImageFile(inputPath.toString(), outputPath.toString(), fileExtension, quality);
+            if (searchTarget) {
+                compressImageToTarget(inputPath, outputPath, fileExtension, targetBytes, targetSsim);
+            } else {
+                if (targetBytes > 0 || targetSsim > 0) {
+                    System.out.println("Targets only apply to JPEG; compressing " + fileExtension + " at quality " + quality);
+                }
+                compressImageFile(inputPath.toString(), outputPath.toString(), fileExtension, quality);
+            }
 
             // Check if compression actually reduced the file size
             long compressedSize = Files.size(outputPath);
@@ -61,6 +105,7 @@ public class ImageCompressorService {
                 Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
                 System.out.println("Compression increased file size. Using original file instead.");
             }
+            resultCacheService.storeResult(cacheKey, fileExtension, outputPath);
         } catch (Exception e) {
             // If any error occurs during compression, use the original file
             Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
@@ -71,6 +116,41 @@ public class ImageCompressorService {
         return fileId + "_compressed." + fileExtension;
     }
 
+    // Searches the quality on a proxy of the image, then encodes the full image once. A size target that the
+    // full encode still overshoots corrects the proxy's prediction and gets one more encode at most.
+    private void compressImageToTarget(Path inputPath, Path outputPath, String formatName,
+                                       long targetBytes, double targetSsim) throws IOException {
+        BufferedImage image = ImageIO.read(inputPath.toFile());
+        if (image == null) {
+            throw new IOException("Unsupported image: " + inputPath.getFileName());
+        }
+        
+        try (ImageQualitySearch search = new ImageQualitySearch(image, formatName)) {
+            int fullEncodes = 1;
+            if (targetBytes > 0) {
+                float quality = search.qualityForBytes(targetBytes);
+                long size = search.write(quality, outputPath);
+                if (size > targetBytes) {
+                    search.calibrate(quality, size);
+                    float corrected = search.qualityForBytes(targetBytes);
+                    if (corrected < quality) {
+                        quality = corrected;
+                        size = search.write(quality, outputPath);
+                        fullEncodes++;
+                    }
+                }
+                System.out.println("Target size " + targetBytes + " bytes: quality " + quality + ", output " + size
+                    + " bytes (" + search.getProxyEncodes() + " proxy encodes, " + fullEncodes + " full)");
+            } else {
+                float quality = search.qualityForSsim(targetSsim);
+                long size = search.write(quality, outputPath);
+                System.out.println(String.format("Target SSIM %.4f: quality %.2f, SSIM %.4f, output %d bytes "
+                    + "(%d proxy encodes, %d full)", targetSsim, quality, search.ssim(quality), size,
+                    search.getProxyEncodes(), fullEncodes));
+            }
+        }
+    }
+
     private void compressImageFile(String inputPath, String outputPath, String formatName, float quality) throws IOException {
         // Read the image
         BufferedImage image = ImageIO.read(new java.io.File(inputPath));
@@ -82,15 +162,16 @@ public class ImageCompressorService {
         }
         
         // For other formats, use standard compression
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
         
         if (!writers.hasNext()) {
             throw new IOException("No writer found for format: " + formatName);
         }
         
+        // Write the compressed image straight to the output file
+        Files.deleteIfExists(Paths.get(outputPath));
         ImageWriter writer = writers.next();
-        ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream);
+        ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(new java.io.File(outputPath));
         writer.setOutput(imageOutputStream);
         
         ImageWriteParam param = writer.getDefaultWriteParam();
@@ -101,13 +182,12 @@ public class ImageCompressorService {
             param.setCompressionQuality(quality);
         }
         
-        writer.write(null, new IIOImage(image, null, null), param);
-        writer.dispose();
-        imageOutputStream.close();
-        
-        // Write the compressed image to file
-        byte[] compressedImageData = outputStream.toByteArray();
-        Files.write(Paths.get(outputPath), compressedImageData);
+        try {
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            imageOutputStream.close();
+        }
     }
     
     private void compressPNG(BufferedImage image, String outputPath, float quality) throws IOException {
@@ -0,0 +1,313 @@
+package com.pdfcompressor.service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Finds the lossy quality that meets a target size or SSIM without encoding the full image over and over.
+// The search runs on a proxy: a mosaic of small tiles taken across the image at full resolution, so the JPEG
+// blocks see the same detail as in the real encode (a resized copy would pack more detail into each block and
+// overstate the bytes per pixel). The proxy is encoded into memory with one writer, decoded with one reader
+// into one reused image for the SSIM, and quality steps already measured are not encoded again.
+class ImageQualitySearch implements Closeable {
+
+    // Quality is searched in steps of 1/100; below 5 JPEG falls apart into blocks
+    private static final int MIN_STEP = 5;
+    private static final int MAX_STEP = 100;
+
+    // Tiles are whole 16x16 MCUs (8x8 blocks with 4:2:0 chroma), so they encode as they would in place
+    private static final int TILE = 32;
+    private static final int PROXY_PIXELS = 512 * 512;
+
+    // SSIM is averaged over 8x8 windows of the luma, with the usual constants for 8-bit samples
+    private static final int WINDOW = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final BufferedImage image;
+    private final BufferedImage proxy;
+    private final ImageWriter writer;
+    private final ImageReader reader;
+    private final ImageWriteParam param;
+
+    private final Buffer buffer = new Buffer();
+    private final BufferedImage decoded;
+    private final int[] proxyLuma;
+    private final int[] decodedLuma;
+
+    // Per quality step: bytes of the encoded proxy and its SSIM, -1 until measured
+    private final long[] proxyBytes = new long[MAX_STEP + 1];
+    private final double[] proxySsim = new double[MAX_STEP + 1];
+    // Full image bytes per proxy byte; starts as the ratio of pixels, corrected by calibrate()
+    private double bytesScale;
+    private int bufferedStep = -1;
+    private int proxyEncodes;
+
+    ImageQualitySearch(BufferedImage source, String formatName) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer found for format: " + formatName);
+        }
+        writer = writers.next();
+        // The writer's own reader when the registry knows it (it does not always inside the packaged app); any
+        // reader of the format decodes the proxy as well
+        ImageReader pairedReader = ImageIO.getImageReader(writer);
+        if (pairedReader == null) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(formatName);
+            if (!readers.hasNext()) {
+                writer.dispose();
+                throw new IOException("No reader found for format: " + formatName);
+            }
+            pairedReader = readers.next();
+        }
+        reader = pairedReader;
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+
+        image = toOpaque(source);
+        proxy = buildProxy(image);
+        bytesScale = (double) image.getWidth() * image.getHeight() / ((double) proxy.getWidth() * proxy.getHeight());
+        decoded = new BufferedImage(proxy.getWidth(), proxy.getHeight(), proxy.getType());
+        proxyLuma = luma(proxy, new int[proxy.getWidth() * proxy.getHeight()]);
+        decodedLuma = new int[proxyLuma.length];
+        Arrays.fill(proxyBytes, -1);
+        Arrays.fill(proxySsim, -1);
+    }
+
+    // Only formats whose writer trades quality for size can be searched
+    static boolean canSearch(String formatName) {
+        return formatName.equalsIgnoreCase("jpg") || formatName.equalsIgnoreCase("jpeg");
+    }
+
+    // The highest quality whose full-size output is predicted to fit in targetBytes (the lowest if none does)
+    float qualityForBytes(long targetBytes) throws IOException {
+        int low = MIN_STEP;
+        int high = MAX_STEP;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (predictedBytes(mid) <= targetBytes) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low / 100f;
+    }
+
+    // The lowest quality whose SSIM against the source reaches targetSsim (the highest if none does)
+    float qualityForSsim(double targetSsim) throws IOException {
+        int low = MIN_STEP;
+        int high = MAX_STEP;
+        while (low < high) {
+            int mid = (low + high) / 2;
+            if (ssim(mid) >= targetSsim) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low / 100f;
+    }
+
+    long predictedBytes(float quality) throws IOException {
+        return predictedBytes(step(quality));
+    }
+
+    double ssim(float quality) throws IOException {
+        return ssim(step(quality));
+    }
+
+    // After a full encode missed its prediction, scale all predictions by what the full image really took
+    void calibrate(float quality, long actualBytes) throws IOException {
+        long proxyEncoded = proxyBytes(step(quality));
+        if (proxyEncoded > 0 && actualBytes > 0) {
+            bytesScale = (double) actualBytes / proxyEncoded;
+        }
+    }
+
+    // The one full-resolution encode, straight to the output file
+    long write(float quality, Path outputPath) throws IOException {
+        Files.deleteIfExists(outputPath);
+        param.setCompressionQuality(quality);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(new File(outputPath.toString()))) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        return Files.size(outputPath);
+    }
+
+    int getProxyEncodes() {
+        return proxyEncodes;
+    }
+
+    @Override
+    public void close() {
+        writer.dispose();
+        reader.dispose();
+    }
+
+    private long predictedBytes(int step) throws IOException {
+        return Math.round(proxyBytes(step) * bytesScale);
+    }
+
+    private double ssim(int step) throws IOException {
+        if (proxySsim[step] < 0) {
+            if (bufferedStep != step) {
+                encode(step);
+            }
+            try (ImageInputStream input = new MemoryCacheImageInputStream(buffer.asInputStream())) {
+                reader.setInput(input, true, true);
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setDestination(decoded);
+                reader.read(0, readParam);
+            }
+            proxySsim[step] = meanSsim(proxyLuma, luma(decoded, decodedLuma), proxy.getWidth(), proxy.getHeight());
+        }
+        return proxySsim[step];
+    }
+
+    private long proxyBytes(int step) throws IOException {
+        if (proxyBytes[step] < 0) {
+            encode(step);
+        }
+        return proxyBytes[step];
+    }
+
+    // Encodes the proxy into the reused buffer, which keeps only the latest encode
+    private void encode(int step) throws IOException {
+        buffer.reset();
+        param.setCompressionQuality(step / 100f);
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(proxy, null, null), param);
+        }
+        proxyEncodes++;
+        bufferedStep = step;
+        proxyBytes[step] = buffer.size();
+    }
+
+    private static int step(float quality) {
+        return Math.max(MIN_STEP, Math.min(MAX_STEP, Math.round(quality * 100)));
+    }
+
+    // JPEG has no alpha; anything that is not plain 8-bit gray or BGR is drawn into BGR first
+    private static BufferedImage toOpaque(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_3BYTE_BGR || source.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return source;
+        }
+        BufferedImage opaque = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = opaque.createGraphics();
+        try {
+            graphics.drawImage(source, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return opaque;
+    }
+
+    // Tiles on an even grid over the image, side by side; small images are their own proxy
+    private static BufferedImage buildProxy(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if ((long) width * height <= 2L * PROXY_PIXELS || width < TILE || height < TILE) {
+            return image;
+        }
+        int tiles = PROXY_PIXELS / (TILE * TILE);
+        int columns = Math.max(1, Math.min(width / TILE, (int) Math.round(Math.sqrt(tiles * (double) width / height))));
+        int rows = Math.max(1, Math.min(height / TILE, tiles / columns));
+
+        BufferedImage proxy = new BufferedImage(columns * TILE, rows * TILE, image.getType());
+        Graphics2D graphics = proxy.createGraphics();
+        try {
+            for (int row = 0; row < rows; row++) {
+                // Aligned to the source's own 16-pixel MCU grid
+                int y = (int) ((height - TILE) * (row + 0.5) / rows) & ~15;
+                for (int column = 0; column < columns; column++) {
+                    int x = (int) ((width - TILE) * (column + 0.5) / columns) & ~15;
+                    graphics.drawImage(image.getSubimage(x, y, TILE, TILE), column * TILE, row * TILE, null);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return proxy;
+    }
+
+    private static int[] luma(BufferedImage image, int[] target) {
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] = data[i] & 0xFF;
+            }
+        } else {
+            // B, G, R per pixel
+            for (int i = 0, j = 0; i < target.length; i++, j += 3) {
+                target[i] = (114 * (data[j] & 0xFF) + 587 * (data[j + 1] & 0xFF) + 299 * (data[j + 2] & 0xFF)) / 1000;
+            }
+        }
+        return target;
+    }
+
+    private static double meanSsim(int[] a, int[] b, int width, int height) {
+        double sum = 0;
+        int windows = 0;
+        for (int y = 0; y + WINDOW <= height; y += WINDOW) {
+            for (int x = 0; x + WINDOW <= width; x += WINDOW) {
+                long sumA = 0, sumB = 0, sumAA = 0, sumBB = 0, sumAB = 0;
+                for (int dy = 0; dy < WINDOW; dy++) {
+                    int offset = (y + dy) * width + x;
+                    for (int dx = 0; dx < WINDOW; dx++) {
+                        int va = a[offset + dx];
+                        int vb = b[offset + dx];
+                        sumA += va;
+                        sumB += vb;
+                        sumAA += va * va;
+                        sumBB += vb * vb;
+                        sumAB += va * vb;
+                    }
+                }
+                double n = WINDOW * WINDOW;
+                double meanA = sumA / n;
+                double meanB = sumB / n;
+                double varA = sumAA / n - meanA * meanA;
+                double varB = sumBB / n - meanB * meanB;
+                double covariance = sumAB / n - meanA * meanB;
+                sum += ((2 * meanA * meanB + C1) * (2 * covariance + C2))
+                    / ((meanA * meanA + meanB * meanB + C1) * (varA + varB + C2));
+                windows++;
+            }
+        }
+        return windows == 0 ? 1.0 : sum / windows;
+    }
+
+    // The encoded bytes are read back in place, without the copy toByteArray() would make
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(256 * 1024);
+        }
+
+        ByteArrayInputStream asInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.pdfcompressor.service;
+
+import com.pdfcompressor.model.JobStatus;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class JobService {
+
+    // Each workload type gets its own executor and queue, so long video jobs cannot starve short ones
+    public enum JobType {
+        PDF(2), IMAGE(2), VIDEO(1), WATERMARK(2), CONVERSION(2);
+
+        private final int defaultThreads;
+
+        JobType(int defaultThreads) {
+            this.defaultThreads = defaultThreads;
+        }
+    }
+
+    @FunctionalInterface
+    public interface JobTask {
+        Object run(JobStatus job) throws Exception;
+    }
+
+    private final Map<String, JobStatus> jobs = new ConcurrentHashMap<>();
+    private final Map<JobType, ThreadPoolExecutor> executors = new EnumMap<>(JobType.class);
+    private final long retentionMillis;
+
+    public JobService(Environment environment,
+                      @Value("${jobs.retention-minutes:60}") long retentionMinutes) {
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+
+        for (JobType type : JobType.values()) {
+            String prefix = "jobs." + type.name().toLowerCase() + ".";
+            int threads = environment.getProperty(prefix + "threads", Integer.class, type.defaultThreads);
+            int queueCapacity = environment.getProperty(prefix + "queue-capacity", Integer.class, 100);
+
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "job-" + type.name().toLowerCase() + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executors.put(type, executor);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    public JobStatus submit(JobType type, JobTask task) {
+        purgeExpiredJobs();
+
+        JobStatus job = new JobStatus(UUID.randomUUID().toString(), type.name(), JobStatus.QUEUED, "Job queued");
+        jobs.put(job.getJobId(), job);
+
+        try {
+            executors.get(type).execute(() -> runJob(job, task));
+        } catch (RejectedExecutionException e) {
+            // The queue for this workload is full
+            jobs.remove(job.getJobId());
+            throw e;
+        }
+        return job;
+    }
+
+    // For jobs that run on a stored upload: when the queue is full the job never runs, so nothing else would
+    // ever remove the upload
+    public JobStatus submit(JobType type, StoredUpload upload, JobTask task) {
+        try {
+            return submit(type, task);
+        } catch (RejectedExecutionException e) {
+            try {
+                Files.deleteIfExists(upload.getPath());
+            } catch (IOException deleteError) {
+                System.out.println("Could not delete rejected upload " + upload.getPath() + ": " + deleteError.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    public JobStatus getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private void runJob(JobStatus job, JobTask task) {
+        job.setStartedAt(System.currentTimeMillis());
+        job.setState(JobStatus.RUNNING);
+        job.setMessage("Job running");
+
+        try {
+            Object result = task.run(job);
+            job.setResult(result);
+            job.setProgress(1.0);
+            job.setState(JobStatus.COMPLETED);
+            job.setMessage("Job completed");
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.setState(JobStatus.FAILED);
+            job.setMessage("Error: " + e.getMessage());
+        } finally {
+            job.setFinishedAt(System.currentTimeMillis());
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.getFinishedAt() > 0 && job.getFinishedAt() < cutoff);
+    }
+}
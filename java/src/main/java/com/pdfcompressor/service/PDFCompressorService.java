@@ -1,24 +1,48 @@
 package com.pdfcompressor.service;
 
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 @Service
 public class PDFCompressorService {
@@ -26,28 +50,114 @@ public class PDFCompressorService {
     private final Path uploadDir = Paths.get("uploads");
     private final Path outputDir = Paths.get("outputs");
 
-    public PDFCompressorService() {
+    private final UploadStorageService uploadStorageService;
+    private final ResultCacheService resultCacheService;
+
+    // Page rasterization settings (see application.properties)
+    private final boolean parallelRasterization;
+    private final int workersPerRequest;
+    private final ExecutorService rasterizationPool;
+
+    // Heap each open document may use for stream data before spilling to a scratch file
+    private final long scratchMainMemoryBytes;
+
+    // How quality < 0.5 is compressed: "recompress" shrinks the images and keeps text and vectors,
+    // "rasterize" turns every page into one JPEG, "adaptive" picks one of these (or neither) per page
+    private final String lowQualityStrategy;
+
+    // Objects per compressed object stream in optimized output; 0 writes a classic cross-reference table
+    private final int objectStreamSize;
+
+    // Whether streams are re-encoded with Flate before an optimized save, and at which zlib level
+    // (-1 is zlib's default level, as for Deflater)
+    private final boolean recompressStreams;
+    private final int flateLevel;
+
+    public PDFCompressorService(
+            UploadStorageService uploadStorageService,
+            ResultCacheService resultCacheService,
+            @Value("${pdf.compression.parallel.enabled:true}") boolean parallelRasterization,
+            @Value("${pdf.compression.parallel.workers-per-request:4}") int workersPerRequest,
+            @Value("${pdf.compression.parallel.max-workers:0}") int maxWorkers,
+            @Value("${pdf.scratch.max-main-memory-mb:16}") long scratchMainMemoryMb,
+            @Value("${pdf.compression.low-quality-strategy:adaptive}") String lowQualityStrategy,
+            @Value("${pdf.compression.object-stream-size:100}") int objectStreamSize,
+            @Value("${pdf.compression.recompress-streams.enabled:true}") boolean recompressStreams,
+            @Value("${pdf.compression.flate-level:9}") int flateLevel) {
         try {
             Files.createDirectories(uploadDir);
             Files.createDirectories(outputDir);
         } catch (IOException e) {
             throw new RuntimeException("Could not create upload directories", e);
         }
+
+        this.uploadStorageService = uploadStorageService;
+        this.resultCacheService = resultCacheService;
+        this.scratchMainMemoryBytes = scratchMainMemoryMb * 1024 * 1024;
+        this.lowQualityStrategy = lowQualityStrategy;
+        this.objectStreamSize = objectStreamSize;
+        this.recompressStreams = recompressStreams;
+        this.flateLevel = Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, flateLevel));
+
+        // The pool size is the global limit shared by all requests; 0 means one worker per core
+        int poolSize = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.parallelRasterization = parallelRasterization;
+        this.workersPerRequest = Math.max(1, Math.min(workersPerRequest, poolSize));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.rasterizationPool = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-rasterizer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rasterizationPool.shutdownNow();
     }
 
     public String compressPDF(MultipartFile file, float quality) throws IOException {
-        // Generate unique file names
-        String fileId = file.getOriginalFilename();
+        StoredUpload upload = saveUpload(file);
+        return compressStoredPDF(upload, quality);
+    }
+
+    public StoredUpload saveUpload(MultipartFile file) throws IOException {
+        return saveUpload(file, file.getOriginalFilename());
+    }
+
+    public StoredUpload saveUpload(MultipartFile file, String fileId) throws IOException {
         Path inputPath = uploadDir.resolve(fileId + ".pdf");
-        Path outputPath = outputDir.resolve(fileId + "_compressed.pdf");
 
-        try (var inputStream = file.getInputStream()) {
-            Files.copy(inputStream, inputPath, StandardCopyOption.REPLACE_EXISTING);
+        // Save the uploaded file
+        return uploadStorageService.store(file, fileId, inputPath);
+    }
+
+    // For PDFs that do not arrive as their own multipart part; fileId must be unique, it names the output
+    public StoredUpload saveUpload(InputStream inputStream, String fileId) throws IOException {
+        Path inputPath = uploadDir.resolve(fileId + ".pdf");
+        try {
+            return uploadStorageService.store(inputStream, fileId, inputPath);
+        } catch (IOException | RuntimeException e) {
+            // A stream that fails halfway must not leave a partial upload behind
+            Files.deleteIfExists(inputPath);
+            throw e;
         }
+    }
 
+    public String compressStoredPDF(StoredUpload upload, float quality) throws IOException {
+        String fileId = upload.getFileId();
+        Path inputPath = upload.getPath();
+        Path outputPath = outputDir.resolve(fileId + "_compressed.pdf");
 
         // Get original file size
-        long originalSize = Files.size(inputPath);
+        long originalSize = upload.getSize();
+
+        // Same bytes compressed with the same settings before? Reuse that output
+        String cacheKey = resultCacheService.buildKey(upload, "pdf-compress", quality, lowQualityStrategy, objectStreamSize,
+            recompressStreams ? flateLevel : "off");
+        if (resultCacheService.copyCachedResult(cacheKey, "pdf", outputPath)) {
+            return fileId + "_compressed.pdf";
+        }
 
         try {
             // Compress the PDF
@@ -62,6 +172,7 @@ public class PDFCompressorService {
                 Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
                 System.out.println("Compression increased file size. Using original file instead.");
             }
+            resultCacheService.storeResult(cacheKey, "pdf", outputPath);
         } catch (Exception e) {
             // If any error occurs during compression, use the original file
             Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
@@ -75,13 +186,19 @@ public class PDFCompressorService {
     private void compressPDFFile(String inputPath, String outputPath, float quality) throws IOException {
         // Load the PDF document
         File inputFile = new File(inputPath);
-        PDDocument document = PDDocument.load(inputFile);
+        PDDocument document = Loader.loadPDF(inputFile, scratchMemory());
         
         try {
             // Try different compression strategies based on the quality parameter
-            if (quality < 0.5f) {
+            if (quality < 0.5f && "rasterize".equalsIgnoreCase(lowQualityStrategy)) {
                 // For higher compression (lower quality), use image-based compression
-                compressWithImageConversion(document, outputPath, quality);
+                compressWithImageConversion(inputFile, document, outputPath, quality);
+            } else if (quality < 0.5f && "recompress".equalsIgnoreCase(lowQualityStrategy)) {
+                // Shrink the embedded images only; text and vector content stay as they are
+                compressWithImageRecompression(document, outputPath, quality);
+            } else if (quality < 0.5f) {
+                // Each page gets whichever of the above suits it, or is left as it is
+                compressPerPage(inputFile, document, outputPath, quality);
             } else {
                 // For higher quality, use PDF/A optimization which preserves quality better
                 compressWithPDFOptimization(document, outputPath);
@@ -92,61 +209,264 @@ public class PDFCompressorService {
         }
     }
     
-    private void compressWithImageConversion(PDDocument document, String outputPath, float quality) throws IOException {
+    private void compressWithImageConversion(File inputFile, PDDocument document, String outputPath, float quality) throws IOException {
+        int pageCount = document.getNumberOfPages();
+        
+        int dpi = dpiForQuality(quality);
         
+        // Only fan out when there is more than one page to share between workers
+        int workers = parallelRasterization ? Math.min(workersPerRequest, pageCount) : 1;
         
-        try (PDDocument compressedDocument = new PDDocument()) {
-            // Create a renderer for the original document
-            PDFRenderer pdfRenderer = new PDFRenderer(document);
+        // Image and content streams of finished pages are kept in a scratch file rather than on the heap,
+        // so memory use does not grow with the page count
+        try (PDDocument compressedDocument = new PDDocument(scratchMemory())) {
+            List<CompletableFuture<byte[]>> encodedPages = null;
+            AtomicInteger nextPage = new AtomicInteger();
+            // Workers may run at most this many pages ahead of the page being written
+            Semaphore pageWindow = new Semaphore(workers * 2);
+            if (workers > 1) {
+                int[] allPages = IntStream.range(0, pageCount).toArray();
+                encodedPages = rasterizePagesInParallel(inputFile, allPages, dpi, quality, true, workers, nextPage, pageWindow);
+            }
             
-            // Calculate appropriate DPI based on quality
-            // Lower quality = lower DPI = smaller file
-            int dpi = Math.max(72, Math.min(150, (int)(72 + (quality * 78))));
+            // Create a renderer for the original document (serial mode only)
+            PDFRenderer pdfRenderer = encodedPages == null ? new PDFRenderer(document) : null;
             
-            // Process each page
-            for (int pageIndex = 0; pageIndex < document.getNumberOfPages(); pageIndex++) {
-                // Render the page to an image
-                BufferedImage image = pdfRenderer.renderImageWithDPI(
-                    pageIndex, dpi, ImageType.RGB);
-                
-                // Create a JPEG from the image with the specified quality
-                PDImageXObject pdImage = JPEGFactory.createFromImage(
-                    compressedDocument, image, quality);
-                
-                // Get the original page dimensions
-                PDPage originalPage = document.getPage(pageIndex);
-                PDRectangle mediaBox = originalPage.getMediaBox();
-                
-                // Create a new page with the same dimensions
-                PDPage newPage = new PDPage(new PDRectangle(mediaBox.getWidth(), mediaBox.getHeight()));
-                compressedDocument.addPage(newPage);
-                
-                // Draw the compressed image on the new page
-                PDPageContentStream contentStream = new PDPageContentStream(compressedDocument, newPage);
-                contentStream.drawImage(pdImage, 0, 0, mediaBox.getWidth(), mediaBox.getHeight());
-                contentStream.close();
+            try {
+                // Process each page, in order
+                for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                    PDImageXObject pdImage;
+                    if (encodedPages != null) {
+                        // Wait for the worker that owns this page to finish encoding it, then drop our
+                        // reference to the encoded bytes and let the workers move on to another page
+                        pdImage = JPEGFactory.createFromByteArray(
+                            compressedDocument, awaitPage(encodedPages.get(pageIndex), pageIndex));
+                        encodedPages.set(pageIndex, null);
+                        pageWindow.release();
+                    } else {
+                        // Render the page to an image
+                        BufferedImage image = pdfRenderer.renderImageWithDPI(
+                            pageIndex, dpi, ImageType.RGB);
+                        
+                        // Create a JPEG from the image with the specified quality
+                        pdImage = JPEGFactory.createFromImage(
+                            compressedDocument, image, quality);
+                    }
+                    
+                    // Get the original page dimensions
+                    PDPage originalPage = document.getPage(pageIndex);
+                    PDRectangle mediaBox = originalPage.getMediaBox();
+                    
+                    // Create a new page with the same dimensions
+                    PDPage newPage = new PDPage(new PDRectangle(mediaBox.getWidth(), mediaBox.getHeight()));
+                    compressedDocument.addPage(newPage);
+                    
+                    // Draw the compressed image on the new page
+                    PDPageContentStream contentStream = new PDPageContentStream(compressedDocument, newPage);
+                    contentStream.drawImage(pdImage, 0, 0, mediaBox.getWidth(), mediaBox.getHeight());
+                    contentStream.close();
+                }
+            } finally {
+                // Stop workers from picking up more pages if we bailed out early, and wake any
+                // that are waiting for room in the window so they can see that
+                nextPage.set(pageCount);
+                pageWindow.release(workers);
             }
             
             // Save the compressed document
             compressedDocument.save(outputPath);
-         // Close the compressed document
-            compressedDocument.close();
+        }
+    }
+    
+    // One DPI per quality for every strategy, so rasterized pages and recompressed images match.
+    // Lower quality = lower DPI = smaller file
+    private static int dpiForQuality(float quality) {
+        return Math.max(72, Math.min(150, (int)(72 + (quality * 78))));
+    }
+
+    private void compressWithImageRecompression(PDDocument document, String outputPath, float quality) throws IOException {
+        int dpi = dpiForQuality(quality);
+        // Shared copies are recompressed once
+        new PDFResourceDeduplicator().deduplicate(document);
+        new PDFImageRecompressor(dpi, quality).recompress(document);
+        saveOptimized(document, outputPath);
+    }
+    
+    // The adaptive strategy: PDFPageClassifier decides from estimated sizes whether each page is kept, has its
+    // images recompressed or is replaced by one JPEG of the page; the document is then saved the usual way
+    private void compressPerPage(File inputFile, PDDocument document, String outputPath, float quality) throws IOException {
+        int dpi = dpiForQuality(quality);
+        List<PDFPageClassifier.PageProfile> pages = new PDFPageClassifier(dpi, quality).classify(document);
+        
+        int[] rasterized = pages.stream()
+            .filter(page -> page.strategy == PDFPageClassifier.Strategy.RASTERIZE)
+            .mapToInt(page -> page.pageIndex)
+            .toArray();
+        if (rasterized.length > 0) {
+            rasterizePagesInPlace(inputFile, document, rasterized, dpi, quality);
+        }
+        
+        // The other pages go the image-recompress way, limited to the pages that were picked for it
+        new PDFResourceDeduplicator().deduplicate(document);
+        new PDFImageRecompressor(dpi, quality).recompress(document,
+            pageIndex -> pages.get(pageIndex).strategy == PDFPageClassifier.Strategy.RECOMPRESS);
+        saveOptimized(document, outputPath);
+    }
+    
+    // Replaces the content of each page with one JPEG of it. The page object itself stays, with its links,
+    // form fields and other annotations, which are therefore left out of the raster.
+    private void rasterizePagesInPlace(File inputFile, PDDocument document, int[] pages, int dpi, float quality)
+            throws IOException {
+        int workers = parallelRasterization ? Math.min(workersPerRequest, pages.length) : 1;
+        List<CompletableFuture<byte[]>> encodedPages = null;
+        AtomicInteger nextPage = new AtomicInteger();
+        Semaphore pageWindow = new Semaphore(workers * 2);
+        if (workers > 1) {
+            encodedPages = rasterizePagesInParallel(inputFile, pages, dpi, quality, false, workers, nextPage, pageWindow);
+        }
+        // Serial mode renders from the document being changed; a page is only replaced after it was rendered
+        PDFRenderer pdfRenderer = encodedPages == null ? newRenderer(document, false) : null;
+        
+        try {
+            for (int i = 0; i < pages.length; i++) {
+                byte[] jpeg;
+                if (encodedPages != null) {
+                    jpeg = awaitPage(encodedPages.get(i), pages[i]);
+                    encodedPages.set(i, null);
+                    pageWindow.release();
+                } else {
+                    jpeg = encodeJpeg(pdfRenderer.renderImageWithDPI(pages[i], dpi, ImageType.RGB), quality);
+                }
+                
+                PDPage page = document.getPage(pages[i]);
+                PDImageXObject pdImage = JPEGFactory.createFromByteArray(document, jpeg);
+                PDRectangle cropBox = page.getCropBox();
+                page.setResources(new PDResources());
+                try (PDPageContentStream contentStream = new PDPageContentStream(
+                        document, page, PDPageContentStream.AppendMode.OVERWRITE, true)) {
+                    contentStream.drawImage(pdImage, cropBox.getLowerLeftX(), cropBox.getLowerLeftY(),
+                        cropBox.getWidth(), cropBox.getHeight());
+                }
+            }
         } finally {
+            nextPage.set(pages.length);
+            pageWindow.release(workers);
+        }
+    }
+    
+    // Renders the given pages (encodedPages has one entry per element of pages, in the same order).
+    // Without annotations the raster only holds the page content, for pages that keep their annotations.
+    private List<CompletableFuture<byte[]>> rasterizePagesInParallel(File inputFile, int[] pages, int dpi,
+                                                                    float quality, boolean withAnnotations, int workers,
+                                                                    AtomicInteger nextPage, Semaphore pageWindow) {
+        List<CompletableFuture<byte[]>> encodedPages = new ArrayList<>(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            encodedPages.add(new CompletableFuture<>());
+        }
+        
+        // Each worker opens its own handle on the input, since PDDocument and PDFRenderer are not thread-safe,
+        // and then keeps claiming the next unrendered page until none are left
+        for (int i = 0; i < workers; i++) {
+            rasterizationPool.execute(() -> rasterizePages(inputFile, pages, dpi, quality, withAnnotations, nextPage,
+                pageWindow, encodedPages));
+        }
+        return encodedPages;
+    }
+    
+    private void rasterizePages(File inputFile, int[] pages, int dpi, float quality, boolean withAnnotations,
+                                AtomicInteger nextPage, Semaphore pageWindow, List<CompletableFuture<byte[]>> encodedPages) {
+        int position;
+        try (PDDocument workerDocument = Loader.loadPDF(inputFile, scratchMemory())) {
+            PDFRenderer workerRenderer = newRenderer(workerDocument, withAnnotations);
+            while (true) {
+                // Pages are claimed in order after taking a slot, so the page being written always has
+                // an owner and the window cannot deadlock
+                pageWindow.acquire();
+                if ((position = nextPage.getAndIncrement()) >= encodedPages.size()) {
+                    break;
+                }
+                try {
+                    BufferedImage image = workerRenderer.renderImageWithDPI(pages[position], dpi, ImageType.RGB);
+                    encodedPages.get(position).complete(encodeJpeg(image, quality));
+                } catch (Exception e) {
+                    encodedPages.get(position).completeExceptionally(e);
+                }
+            }
+        } catch (Exception e) {
+            // This worker could not open the document (or was interrupted); fail whatever it would have picked up
+            while ((position = nextPage.getAndIncrement()) < encodedPages.size()) {
+                encodedPages.get(position).completeExceptionally(e);
+            }
+        }
+    }
+    
+    private static PDFRenderer newRenderer(PDDocument document, boolean withAnnotations) {
+        PDFRenderer renderer = new PDFRenderer(document);
+        if (!withAnnotations) {
+            renderer.setAnnotationsFilter(annotation -> false);
+        }
+        return renderer;
+    }
+    
+    private RandomAccessStreamCache.StreamCacheCreateFunction scratchMemory() {
+        return (scratchMainMemoryBytes > 0
+            ? MemoryUsageSetting.setupMixed(scratchMainMemoryBytes)
+            : MemoryUsageSetting.setupTempFileOnly()).streamCache;
+    }
+    
+    private byte[] awaitPage(CompletableFuture<byte[]> encodedPage, int pageIndex) throws IOException {
+        try {
+            return encodedPage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rasterizing page " + (pageIndex + 1), e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error rasterizing page " + (pageIndex + 1) + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    private byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
             
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
         }
+        return outputStream.toByteArray();
     }
     
     private void compressWithPDFOptimization(PDDocument document, String outputPath) throws IOException {
         // This method preserves the original PDF structure but applies some optimizations
         
+        // Point repeated images, fonts and other streams at a single copy
+        new PDFResourceDeduplicator().deduplicate(document);
+        saveOptimized(document, outputPath);
+    }
+    
+    private void saveOptimized(PDDocument document, String outputPath) throws IOException {
+        // Deflate uncompressed and weakly compressed streams again, spread over the shared worker pool
+        if (recompressStreams) {
+            new PDFStreamRecompressor(flateLevel, rasterizationPool, workersPerRequest * 2).recompress(document);
+        }
+        
         // Set the version to PDF 1.5 which has better compression
         document.setVersion(1.5f);
         
         // Remove metadata to reduce size
         document.setDocumentInformation(new org.apache.pdfbox.pdmodel.PDDocumentInformation());
         
-        // Save with compression enabled
-        document.save(outputPath);
+        // Save with compression enabled: objects other than streams are packed into compressed object streams
+        // and the cross-reference table is written as a stream too (both need PDF 1.5)
+        document.save(outputPath, objectStreamSize > 0
+            ? new CompressParameters(objectStreamSize)
+            : CompressParameters.NO_COMPRESSION);
     }
 
     public Path getCompressedFilePath(String fileName) {
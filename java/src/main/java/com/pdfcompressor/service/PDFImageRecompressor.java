@@ -0,0 +1,259 @@
+package com.pdfcompressor.service;
+
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDCalGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Shrinks the images of a PDF in place and leaves text and vector content alone.
+// Every page's content stream (and the forms it draws) is walked while the transformation matrix is tracked,
+// which gives the size each image is drawn at. An image is then resampled to the target DPI at its largest
+// use and re-encoded as JPEG; the new data replaces the old in the same image stream, so every page that
+// shares the image keeps pointing at it. Images that would not get smaller are left as they are.
+class PDFImageRecompressor {
+
+    // Below this fraction of the original width an image is resampled; closer to 1 it is only re-encoded
+    private static final double MIN_SCALE_STEP = 0.9;
+
+    private final int targetDpi;
+    private final float jpegQuality;
+
+    PDFImageRecompressor(int targetDpi, float jpegQuality) {
+        this.targetDpi = targetDpi;
+        this.jpegQuality = jpegQuality;
+    }
+
+    // Returns the number of bytes saved
+    long recompress(PDDocument document) throws IOException {
+        return recompress(document, pageIndex -> true);
+    }
+
+    // Only images drawn on the selected pages; an image those share with other pages changes there too
+    long recompress(PDDocument document, IntPredicate pages) throws IOException {
+        // Largest size each image is drawn at, in points, keyed by the image stream shared between pages
+        Map<COSStream, float[]> drawnSizes = new LinkedHashMap<>();
+        ImageUseCollector collector = new ImageUseCollector(drawnSizes);
+        int pageIndex = 0;
+        for (PDPage page : document.getPages()) {
+            if (pages.test(pageIndex++)) {
+                collector.processPage(page);
+            }
+        }
+
+        long saved = 0;
+        int replaced = 0;
+        for (Map.Entry<COSStream, float[]> entry : drawnSizes.entrySet()) {
+            long imageSaved = recompressImage(entry.getKey(), entry.getValue());
+            if (imageSaved > 0) {
+                saved += imageSaved;
+                replaced++;
+            }
+        }
+        System.out.println("Recompressed " + replaced + " of " + drawnSizes.size() + " images at "
+            + targetDpi + " DPI, saving " + saved + " bytes");
+        return saved;
+    }
+
+    private long recompressImage(COSStream stream, float[] drawnSize) throws IOException {
+        PDImageXObject image = new PDImageXObject(new PDStream(stream), null);
+        if (!canRecompress(image)) {
+            return 0;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, Math.max(
+            drawnSize[0] / 72.0 * targetDpi / width,
+            drawnSize[1] / 72.0 * targetDpi / height));
+        if (scale > MIN_SCALE_STEP) {
+            scale = 1.0;
+        }
+        int newWidth = Math.max(1, (int) Math.round(width * scale));
+        int newHeight = Math.max(1, (int) Math.round(height * scale));
+
+        boolean gray = isGray(image.getColorSpace());
+        BufferedImage resampled = resample(image.getOpaqueImage(), newWidth, newHeight, gray);
+        byte[] jpeg = encodeJpeg(resampled, jpegQuality);
+
+        long oldLength = stream.getLength();
+        if (jpeg.length >= oldLength) {
+            return 0;
+        }
+
+        // The soft mask, if any, stays: it may have its own size
+        try (OutputStream out = stream.createRawOutputStream()) {
+            out.write(jpeg);
+        }
+        stream.setItem(COSName.FILTER, COSName.DCT_DECODE);
+        stream.removeItem(COSName.DECODE_PARMS);
+        stream.removeItem(COSName.DECODE);
+        stream.setInt(COSName.WIDTH, newWidth);
+        stream.setInt(COSName.HEIGHT, newHeight);
+        stream.setInt(COSName.BITS_PER_COMPONENT, 8);
+        stream.setItem(COSName.COLORSPACE, gray ? COSName.DEVICEGRAY : COSName.DEVICERGB);
+        return oldLength - jpeg.length;
+    }
+
+    static boolean canRecompress(PDImageXObject image) throws IOException {
+        // Stencil and colour-key masks need exact sample values; 1-bit scans only get larger as JPEG
+        if (image.isStencil() || image.getCOSObject().containsKey(COSName.MASK)) {
+            return false;
+        }
+        if (image.getBitsPerComponent() < 8 || image.getWidth() <= 0 || image.getHeight() <= 0) {
+            return false;
+        }
+        // JPEG 2000 with an embedded alpha channel would lose it
+        return image.getCOSObject().getInt(COSName.getPDFName("SMaskInData"), 0) == 0;
+    }
+
+    // Indexed and Separation images also have one component, but it selects or tints a colour, so only
+    // colour spaces that really are gray stay gray; everything else is written as RGB
+    private static boolean isGray(PDColorSpace colorSpace) {
+        if (colorSpace instanceof PDDeviceGray || colorSpace instanceof PDCalGray) {
+            return true;
+        }
+        return colorSpace instanceof PDICCBased && colorSpace.getNumberOfComponents() == 1;
+    }
+
+    // Halves the image with bilinear filtering until the last step is under 2x, which keeps large reductions
+    // from skipping pixels the way a single bilinear pass would
+    private static BufferedImage resample(BufferedImage source, int width, int height, boolean gray) {
+        BufferedImage current = source;
+        while (current.getWidth() != width || current.getHeight() != height) {
+            int nextWidth = current.getWidth() / 2 < width ? width : current.getWidth() / 2;
+            int nextHeight = current.getHeight() / 2 < height ? height : current.getHeight() / 2;
+            current = draw(current, nextWidth, nextHeight);
+        }
+        return gray ? toGray(current) : current;
+    }
+
+    // Only called for gray sources, whose decoded RGB has equal channels; one channel is copied rather than
+    // converting colour spaces
+    private static BufferedImage toGray(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] samples = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                samples[y * width + x] = (byte) row[x];
+            }
+        }
+        return gray;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return outputStream.toByteArray();
+    }
+
+    // Runs only the operators that move the coordinate system or draw XObjects; text and paths are skipped
+    private static final class ImageUseCollector extends PDFStreamEngine {
+        private final Map<COSStream, float[]> drawnSizes;
+
+        ImageUseCollector(Map<COSStream, float[]> drawnSizes) {
+            this.drawnSizes = drawnSizes;
+            addOperator(new Save(this));
+            addOperator(new Restore(this));
+            addOperator(new Concatenate(this));
+            addOperator(new SetMatrix(this));
+            addOperator(new SetGraphicsStateParameters(this));
+            addOperator(new DrawImageOrForm());
+        }
+
+        // Images are drawn into the unit square, so the matrix's column lengths are the drawn width and height
+        private void recordImage(PDImageXObject image) {
+            Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+            float width = (float) Math.hypot(ctm.getValue(0, 0), ctm.getValue(0, 1));
+            float height = (float) Math.hypot(ctm.getValue(1, 0), ctm.getValue(1, 1));
+            float[] size = drawnSizes.computeIfAbsent(image.getCOSObject(), stream -> new float[2]);
+            size[0] = Math.max(size[0], width);
+            size[1] = Math.max(size[1], height);
+        }
+
+        // Do: forms are entered as before, images are measured
+        private final class DrawImageOrForm extends DrawObject {
+            DrawImageOrForm() {
+                super(ImageUseCollector.this);
+            }
+
+            @Override
+            public void process(Operator operator, List<COSBase> operands) throws IOException {
+                if (!operands.isEmpty() && operands.get(0) instanceof COSName) {
+                    PDResources resources = getResources();
+                    COSName name = (COSName) operands.get(0);
+                    if (resources != null && resources.isImageXObject(name)) {
+                        PDXObject xobject = resources.getXObject(name);
+                        if (xobject instanceof PDImageXObject) {
+                            recordImage((PDImageXObject) xobject);
+                        }
+                        return;
+                    }
+                }
+                super.process(operator, operands);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.pdfcompressor.service;
+
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.contentstream.operator.state.Concatenate;
+import org.apache.pdfbox.contentstream.operator.state.Restore;
+import org.apache.pdfbox.contentstream.operator.state.Save;
+import org.apache.pdfbox.contentstream.operator.state.SetGraphicsStateParameters;
+import org.apache.pdfbox.contentstream.operator.state.SetMatrix;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.util.Matrix;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Picks how each page of a PDF is compressed, from its content streams and resources alone (nothing is rendered).
+// For every page the drawn images, their coverage of the page, the shown text and the path operators are
+// collected, and the stored size of the page is estimated three ways: as it is, with its images resampled
+// (image-recompress), and as one JPEG of the whole page (rasterize). The cheapest wins, except that a page is only
+// rasterized when that is far cheaper, as its text stops being text.
+class PDFPageClassifier {
+
+    enum Strategy {
+        KEEP, RECOMPRESS, RASTERIZE
+    }
+
+    // What one page draws
+    static final class PageProfile {
+        final int pageIndex;
+        // Stored bytes of the page's content streams and of the forms it draws (inline images included)
+        long contentBytes;
+        // Fraction of the page covered by images, capped at 1
+        double imageCoverage;
+        int imageCount;
+        // Bytes of text shown, roughly the number of glyphs
+        long textBytes;
+        int pathOperators;
+        // Image streams drawn on this page, with the largest area each is drawn at in square points
+        final Map<COSStream, Double> images = new LinkedHashMap<>();
+        double pageArea;
+        int rotation;
+        Strategy strategy = Strategy.KEEP;
+
+        PageProfile(int pageIndex) {
+            this.pageIndex = pageIndex;
+        }
+    }
+
+    // Rasterizing loses the text layer, so it has to at least halve the page
+    private static final double RASTERIZE_MARGIN = 0.5;
+
+    // Pages with more text than this (about a third of a page of prose) stay searchable whatever it costs
+    private static final long MAX_RASTERIZED_TEXT_BYTES = 1000;
+
+    private final int dpi;
+    private final float quality;
+
+    PDFPageClassifier(int dpi, float quality) {
+        this.dpi = dpi;
+        this.quality = quality;
+    }
+
+    List<PageProfile> classify(PDDocument document) throws IOException {
+        List<PageProfile> profiles = new ArrayList<>();
+        // How many pages draw each image, so a shared logo is charged to each page only in part
+        Map<COSStream, Integer> imageUses = new IdentityHashMap<>();
+        int pageIndex = 0;
+        for (PDPage page : document.getPages()) {
+            PageProfile profile = new PageProfile(pageIndex++);
+            new PageScanner(profile).scan(page);
+            for (COSStream image : profile.images.keySet()) {
+                imageUses.merge(image, 1, Integer::sum);
+            }
+            profiles.add(profile);
+        }
+
+        int[] counts = new int[Strategy.values().length];
+        for (PageProfile profile : profiles) {
+            profile.strategy = choose(profile, imageUses);
+            counts[profile.strategy.ordinal()]++;
+            if (profile.strategy == Strategy.RASTERIZE) {
+                System.out.println("Rasterizing page " + (profile.pageIndex + 1) + ": "
+                    + Math.round(profile.imageCoverage * 100) + "% images, " + profile.textBytes + " text bytes, "
+                    + profile.pathOperators + " path operators, " + profile.contentBytes + " content bytes");
+            }
+        }
+        System.out.println("Page strategies at " + dpi + " DPI: " + counts[Strategy.KEEP.ordinal()] + " keep, "
+            + counts[Strategy.RECOMPRESS.ordinal()] + " image-recompress, " + counts[Strategy.RASTERIZE.ordinal()]
+            + " rasterize");
+        return profiles;
+    }
+
+    private Strategy choose(PageProfile profile, Map<COSStream, Integer> imageUses) throws IOException {
+        double keep = profile.contentBytes;
+        double recompress = profile.contentBytes;
+        for (Map.Entry<COSStream, Double> entry : profile.images.entrySet()) {
+            COSStream stream = entry.getKey();
+            double share = 1.0 / imageUses.get(stream);
+            double stored = stream.getLength();
+            keep += stored * share;
+            recompress += Math.min(stored, recompressedImageBytes(stream, entry.getValue())) * share;
+        }
+        double rasterize = profile.pageArea / (72.0 * 72.0) * dpi * dpi * jpegBytesPerPixel();
+
+        // A rotated page would need its raster turned back; its images are still recompressed
+        if (profile.rotation % 360 == 0 && profile.textBytes <= MAX_RASTERIZED_TEXT_BYTES
+                && rasterize < RASTERIZE_MARGIN * recompress) {
+            return Strategy.RASTERIZE;
+        }
+        return recompress < keep ? Strategy.RECOMPRESS : Strategy.KEEP;
+    }
+
+    // What PDFImageRecompressor will roughly make of the image: never more pixels than now
+    private double recompressedImageBytes(COSStream stream, double drawnArea) throws IOException {
+        PDImageXObject image = new PDImageXObject(new PDStream(stream), null);
+        if (!PDFImageRecompressor.canRecompress(image)) {
+            return stream.getLength();
+        }
+        double targetPixels = drawnArea / (72.0 * 72.0) * dpi * dpi;
+        return Math.min((double) image.getWidth() * image.getHeight(), targetPixels) * jpegBytesPerPixel();
+    }
+
+    // Baseline JPEG of scanned or photographic content, from under 1 bit per pixel at the lowest quality to
+    // about 2 at quality 0.5; it only has to rank the strategies, not predict the output
+    private double jpegBytesPerPixel() {
+        return 0.05 + 0.4 * quality;
+    }
+
+    // Runs only what locates images and counts what else is drawn; fonts are never loaded
+    private static final class PageScanner extends PDFStreamEngine {
+        private final PageProfile profile;
+        private final Set<COSStream> forms = Collections.newSetFromMap(new IdentityHashMap<>());
+        private double imageArea;
+
+        PageScanner(PageProfile profile) {
+            this.profile = profile;
+            addOperator(new Save(this));
+            addOperator(new Restore(this));
+            addOperator(new Concatenate(this));
+            addOperator(new SetMatrix(this));
+            addOperator(new SetGraphicsStateParameters(this));
+            addOperator(new DrawImageOrForm());
+        }
+
+        void scan(PDPage page) throws IOException {
+            PDRectangle box = page.getCropBox();
+            profile.pageArea = Math.max(1, box.getWidth() * box.getHeight());
+            profile.rotation = page.getRotation();
+            Iterator<PDStream> contents = page.getContentStreams();
+            while (contents.hasNext()) {
+                profile.contentBytes += contents.next().getCOSObject().getLength();
+            }
+            processPage(page);
+            profile.imageCoverage = Math.min(1.0, imageArea / profile.pageArea);
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+            switch (operator.getName()) {
+                case OperatorName.SHOW_TEXT:
+                case OperatorName.SHOW_TEXT_LINE:
+                case OperatorName.SHOW_TEXT_LINE_AND_SPACE:
+                    if (!operands.isEmpty() && operands.get(operands.size() - 1) instanceof COSString) {
+                        profile.textBytes += ((COSString) operands.get(operands.size() - 1)).getBytes().length;
+                    }
+                    break;
+                case OperatorName.SHOW_TEXT_ADJUSTED:
+                    if (!operands.isEmpty() && operands.get(0) instanceof COSArray) {
+                        for (COSBase item : (COSArray) operands.get(0)) {
+                            if (item instanceof COSString) {
+                                profile.textBytes += ((COSString) item).getBytes().length;
+                            }
+                        }
+                    }
+                    break;
+                case OperatorName.MOVE_TO:
+                case OperatorName.LINE_TO:
+                case OperatorName.CURVE_TO:
+                case OperatorName.CURVE_TO_REPLICATE_INITIAL_POINT:
+                case OperatorName.CURVE_TO_REPLICATE_FINAL_POINT:
+                case OperatorName.APPEND_RECT:
+                    profile.pathOperators++;
+                    break;
+                case OperatorName.BEGIN_INLINE_IMAGE:
+                    // Its bytes are part of the content stream already
+                    recordImageArea();
+                    break;
+                default:
+                    break;
+            }
+            super.processOperator(operator, operands);
+        }
+
+        // Images are drawn into the unit square, so the determinant of the matrix is the drawn area
+        private double recordImageArea() {
+            Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+            double area = Math.abs(ctm.getValue(0, 0) * ctm.getValue(1, 1) - ctm.getValue(0, 1) * ctm.getValue(1, 0));
+            imageArea += area;
+            profile.imageCount++;
+            return area;
+        }
+
+        // Do: images are measured, forms are counted once and entered as usual
+        private final class DrawImageOrForm extends DrawObject {
+            DrawImageOrForm() {
+                super(PageScanner.this);
+            }
+
+            @Override
+            public void process(Operator operator, List<COSBase> operands) throws IOException {
+                if (!operands.isEmpty() && operands.get(0) instanceof COSName) {
+                    PDResources resources = getResources();
+                    COSName name = (COSName) operands.get(0);
+                    PDXObject xobject = resources != null ? resources.getXObject(name) : null;
+                    if (xobject instanceof PDImageXObject) {
+                        double area = recordImageArea();
+                        profile.images.merge(xobject.getCOSObject(), area, Math::max);
+                        return;
+                    }
+                    if (xobject instanceof PDFormXObject && forms.add(xobject.getCOSObject())) {
+                        profile.contentBytes += xobject.getCOSObject().getLength();
+                    }
+                }
+                super.process(operator, operands);
+            }
+        }
+    }
+}
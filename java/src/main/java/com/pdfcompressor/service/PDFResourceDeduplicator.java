@@ -0,0 +1,226 @@
+package com.pdfcompressor.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Merges identical objects of a PDF: images, form XObjects, font files and every other stream, plus font
+// and font descriptor dictionaries. Documents often embed the same logo or font once per page; after this
+// every reference points at the first copy and the others are no longer written when the document is saved.
+// Objects are compared by their dictionary (minus /Length) and raw stream bytes. Objects that refer to other
+// objects only match once those are merged, so the walk repeats until nothing changes.
+class PDFResourceDeduplicator {
+
+    // Fonts reference descriptors which reference font files, so three rounds usually settle it
+    private static final int MAX_PASSES = 5;
+
+    // Bounds how far a description follows references, which also stops it in reference cycles
+    private static final int MAX_DESCRIBE_DEPTH = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Digest of each stream's raw bytes; streams are not modified between passes
+    private final Map<COSStream, byte[]> contentDigests = new IdentityHashMap<>();
+
+    // Returns the number of references that now point at a shared copy
+    int deduplicate(PDDocument document) throws IOException {
+        int merged = 0;
+        long bytes = 0;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            Pass result = new Pass();
+            result.walk(document.getDocument().getTrailer());
+            if (result.replaced == 0) {
+                break;
+            }
+            merged += result.replaced;
+            bytes += result.droppedStreamBytes;
+        }
+        System.out.println("Merged " + merged + " references to duplicate objects, dropping "
+            + bytes + " bytes of stream data");
+        return merged;
+    }
+
+    private static boolean isCandidate(COSBase object) {
+        if (object instanceof COSStream) {
+            return true;
+        }
+        if (object instanceof COSDictionary) {
+            COSName type = ((COSDictionary) object).getCOSName(COSName.TYPE);
+            return COSName.FONT.equals(type) || COSName.FONT_DESC.equals(type);
+        }
+        return false;
+    }
+
+    // Pages, structure elements and the like link back to their parent and from there to the whole tree
+    private static boolean isTreeNode(COSBase object) {
+        if (!(object instanceof COSDictionary)) {
+            return false;
+        }
+        COSDictionary dictionary = (COSDictionary) object;
+        return dictionary.containsKey(COSName.PARENT) || dictionary.containsKey(COSName.P)
+            || COSName.PAGES.equals(dictionary.getCOSName(COSName.TYPE));
+    }
+
+    private final class Pass {
+        private final Map<String, COSObject> canonicalByKey = new HashMap<>();
+        private final Map<COSBase, String> keys = new IdentityHashMap<>();
+        private final Map<COSBase, Integer> ids = new IdentityHashMap<>();
+        private final Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<COSBase> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Deque<COSBase> pending = new ArrayDeque<>();
+        private int replaced;
+        private long droppedStreamBytes;
+
+        // Iterative, as outline and annotation chains can be far deeper than the call stack
+        void walk(COSDictionary trailer) throws IOException {
+            pending.push(trailer);
+            while (!pending.isEmpty()) {
+                COSBase container = pending.pop();
+                if (!visited.add(container)) {
+                    continue;
+                }
+                if (container instanceof COSDictionary) {
+                    COSDictionary dictionary = (COSDictionary) container;
+                    for (COSName key : new ArrayList<>(dictionary.keySet())) {
+                        COSBase value = dictionary.getItem(key);
+                        COSBase replacement = visit(value);
+                        if (replacement != value) {
+                            dictionary.setItem(key, replacement);
+                        }
+                    }
+                } else if (container instanceof COSArray) {
+                    COSArray array = (COSArray) container;
+                    for (int i = 0; i < array.size(); i++) {
+                        COSBase value = array.get(i);
+                        COSBase replacement = visit(value);
+                        if (replacement != value) {
+                            array.set(i, replacement);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Returns the reference to use instead of value, or value itself
+        private COSBase visit(COSBase value) throws IOException {
+            if (value instanceof COSObject) {
+                COSBase target = ((COSObject) value).getObject();
+                if (target == null) {
+                    return value;
+                }
+                if (isCandidate(target)) {
+                    COSObject canonical = canonicalByKey.putIfAbsent(keyOf(target), (COSObject) value);
+                    if (canonical != null && canonical.getObject() != target) {
+                        replaced++;
+                        if (target instanceof COSStream && dropped.add(target)) {
+                            droppedStreamBytes += ((COSStream) target).getLength();
+                        }
+                        return canonical;
+                    }
+                }
+                pending.push(target);
+            } else if (value instanceof COSDictionary || value instanceof COSArray) {
+                pending.push(value);
+            }
+            return value;
+        }
+
+        private String keyOf(COSBase object) throws IOException {
+            String key = keys.get(object);
+            if (key == null) {
+                key = computeKey(object);
+                keys.put(object, key);
+            }
+            return key;
+        }
+
+        private String computeKey(COSBase object) throws IOException {
+            StringBuilder description = new StringBuilder();
+            describe(object, description, 0);
+            MessageDigest digest = UploadStorageService.newSha256();
+            digest.update(description.toString().getBytes(StandardCharsets.UTF_8));
+            if (object instanceof COSStream) {
+                digest.update(contentDigest((COSStream) object));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+
+        // Values are written out in full, following references into small helper objects such as decode
+        // parameters or width arrays, which writers often store as separate copies too. Other mergeable objects,
+        // tree nodes and anything nested too deeply are written as the identity of the object.
+        private void describe(COSBase value, StringBuilder out, int depth) {
+            if (value instanceof COSObject) {
+                COSBase target = ((COSObject) value).getObject();
+                if (isCandidate(target) || isTreeNode(target) || depth >= MAX_DESCRIBE_DEPTH) {
+                    out.append('@').append(ids.computeIfAbsent(target, t -> ids.size()));
+                } else {
+                    describe(target, out, depth + 1);
+                }
+            } else if (value instanceof COSDictionary) {
+                COSDictionary dictionary = (COSDictionary) value;
+                List<COSName> names = new ArrayList<>(dictionary.keySet());
+                names.sort(null);
+                out.append("<<");
+                for (COSName key : names) {
+                    // The length is only how the bytes were stored, and may itself be an indirect object
+                    if (depth == 0 && value instanceof COSStream && COSName.LENGTH.equals(key)) {
+                        continue;
+                    }
+                    out.append('/').append(key.getName()).append(' ');
+                    describe(dictionary.getItem(key), out, depth + 1);
+                    out.append(' ');
+                }
+                out.append(">>");
+            } else if (value instanceof COSArray) {
+                out.append('[');
+                for (COSBase item : (COSArray) value) {
+                    describe(item, out, depth + 1);
+                    out.append(' ');
+                }
+                out.append(']');
+            } else if (value instanceof COSString) {
+                out.append('<').append(((COSString) value).toHexString()).append('>');
+            } else {
+                out.append(value);
+            }
+        }
+    }
+
+    private byte[] contentDigest(COSStream stream) throws IOException {
+        byte[] cached = contentDigests.get(stream);
+        if (cached != null) {
+            return cached;
+        }
+        MessageDigest digest = UploadStorageService.newSha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = stream.createRawInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] result = digest.digest();
+        contentDigests.put(stream, result);
+        return result;
+    }
+}
@@ -0,0 +1,253 @@
+package com.pdfcompressor.service;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+// Re-encodes the streams of a PDF with Flate at a chosen level.
+// Streams that are stored uncompressed or only with the weak filters (LZW, run-length, ASCII encodings,
+// or Flate written at a low level) are decoded and deflated again; streams that would not get smaller keep
+// their original bytes. Images in JPEG, JPEG 2000, JBIG2 or CCITT, and Flate data using a predictor, are not
+// touched, as deflating them without their filter is no better.
+// PDFBox documents are not thread-safe, so streams are read and written on the calling thread and only the
+// deflating is spread over the pool, at most `window` streams at a time.
+class PDFStreamRecompressor {
+
+    private static final Set<COSName> REENCODABLE_FILTERS = Set.of(
+        COSName.FLATE_DECODE, COSName.LZW_DECODE, COSName.RUN_LENGTH_DECODE,
+        COSName.ASCII_HEX_DECODE, COSName.ASCII85_DECODE);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+    private final ExecutorService pool;
+    private final int window;
+
+    PDFStreamRecompressor(int level, ExecutorService pool, int window) {
+        this.level = level;
+        this.pool = pool;
+        this.window = Math.max(1, window);
+    }
+
+    // Bytes before and after for one kind of stream
+    static final class CategoryTotals {
+        int streams;
+        int recompressed;
+        long bytesBefore;
+        long bytesAfter;
+    }
+
+    private static final class Job {
+        final COSStream stream;
+        final CategoryTotals totals;
+        final long rawLength;
+        final CompletableFuture<byte[]> deflated;
+
+        Job(COSStream stream, CategoryTotals totals, long rawLength, CompletableFuture<byte[]> deflated) {
+            this.stream = stream;
+            this.totals = totals;
+            this.rawLength = rawLength;
+            this.deflated = deflated;
+        }
+    }
+
+    // Returns the totals per stream category (content, image, form, font, other)
+    Map<String, CategoryTotals> recompress(PDDocument document) throws IOException {
+        Map<COSStream, String> streams = collectStreams(document);
+        Map<String, CategoryTotals> report = new LinkedHashMap<>();
+        Deque<Job> inFlight = new ArrayDeque<>();
+
+        try {
+            for (Map.Entry<COSStream, String> entry : streams.entrySet()) {
+                COSStream stream = entry.getKey();
+                CategoryTotals totals = report.computeIfAbsent(entry.getValue(), category -> new CategoryTotals());
+                totals.streams++;
+                long rawLength = stream.getLength();
+                if (!canReencode(stream)) {
+                    totals.bytesBefore += rawLength;
+                    totals.bytesAfter += rawLength;
+                    continue;
+                }
+
+                byte[] decoded;
+                try (InputStream in = stream.createInputStream()) {
+                    decoded = in.readAllBytes();
+                } catch (IOException e) {
+                    // Damaged data stays exactly as it was
+                    totals.bytesBefore += rawLength;
+                    totals.bytesAfter += rawLength;
+                    continue;
+                }
+                inFlight.add(new Job(stream, totals, rawLength,
+                    CompletableFuture.supplyAsync(() -> deflate(decoded), pool)));
+                if (inFlight.size() >= window) {
+                    apply(inFlight.poll());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                apply(inFlight.poll());
+            }
+        } finally {
+            for (Job job : inFlight) {
+                job.deflated.cancel(true);
+            }
+        }
+
+        for (Map.Entry<String, CategoryTotals> entry : report.entrySet()) {
+            CategoryTotals totals = entry.getValue();
+            System.out.println("Flate level " + level + ", " + entry.getKey() + " streams: " + totals.recompressed
+                + " of " + totals.streams + " recompressed, " + totals.bytesBefore + " -> " + totals.bytesAfter
+                + " bytes (saved " + (totals.bytesBefore - totals.bytesAfter) + ")");
+        }
+        return report;
+    }
+
+    private void apply(Job job) throws IOException {
+        byte[] deflated;
+        try {
+            deflated = job.deflated.join();
+        } catch (CompletionException e) {
+            throw new IOException("Could not deflate stream: " + e.getCause().getMessage(), e.getCause());
+        }
+        job.totals.bytesBefore += job.rawLength;
+        if (deflated.length >= job.rawLength) {
+            job.totals.bytesAfter += job.rawLength;
+            return;
+        }
+        try (OutputStream out = job.stream.createRawOutputStream()) {
+            out.write(deflated);
+        }
+        job.stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+        job.stream.removeItem(COSName.DECODE_PARMS);
+        job.totals.bytesAfter += deflated.length;
+        job.totals.recompressed++;
+    }
+
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean canReencode(COSStream stream) {
+        // The writer builds these itself, and XMP metadata is meant to stay readable as plain text
+        COSName type = stream.getCOSName(COSName.TYPE);
+        if (COSName.XREF.equals(type) || COSName.OBJ_STM.equals(type) || COSName.METADATA.equals(type)) {
+            return false;
+        }
+        COSBase filters = stream.getDictionaryObject(COSName.FILTER);
+        if (filters instanceof COSName) {
+            if (!REENCODABLE_FILTERS.contains(filters)) {
+                return false;
+            }
+        } else if (filters instanceof COSArray) {
+            for (COSBase filter : (COSArray) filters) {
+                COSBase name = filter instanceof COSObject ? ((COSObject) filter).getObject() : filter;
+                if (!REENCODABLE_FILTERS.contains(name)) {
+                    return false;
+                }
+            }
+        } else if (filters != null) {
+            return false;
+        }
+        return !usesPredictor(stream.getDictionaryObject(COSName.DECODE_PARMS));
+    }
+
+    private static boolean usesPredictor(COSBase parameters) {
+        if (parameters instanceof COSDictionary) {
+            return ((COSDictionary) parameters).getInt(COSName.PREDICTOR, 1) > 1;
+        }
+        if (parameters instanceof COSArray) {
+            for (COSBase item : (COSArray) parameters) {
+                COSBase resolved = item instanceof COSObject ? ((COSObject) item).getObject() : item;
+                if (usesPredictor(resolved)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Every stream reachable from the trailer, in a fixed order, with the category it is reported under
+    private static Map<COSStream, String> collectStreams(PDDocument document) {
+        Map<COSStream, String> streams = new LinkedHashMap<>();
+        Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<COSBase> pending = new ArrayDeque<>();
+        Deque<COSName> pendingKeys = new ArrayDeque<>();
+        pending.push(document.getDocument().getTrailer());
+        pendingKeys.push(COSName.ROOT);
+        while (!pending.isEmpty()) {
+            COSBase value = pending.pop();
+            COSName key = pendingKeys.pop();
+            if (value instanceof COSObject) {
+                value = ((COSObject) value).getObject();
+            }
+            if (value == null || !visited.add(value)) {
+                continue;
+            }
+            if (value instanceof COSStream) {
+                streams.put((COSStream) value, categoryOf(key, (COSStream) value));
+            }
+            if (value instanceof COSDictionary) {
+                for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) value).entrySet()) {
+                    pending.push(entry.getValue());
+                    pendingKeys.push(entry.getKey());
+                }
+            } else if (value instanceof COSArray) {
+                // Array items are reported under the key of the array, e.g. /Contents [...]
+                for (COSBase item : (COSArray) value) {
+                    pending.push(item);
+                    pendingKeys.push(key);
+                }
+            }
+        }
+        return streams;
+    }
+
+    private static String categoryOf(COSName key, COSStream stream) {
+        if (COSName.CONTENTS.equals(key)) {
+            return "content";
+        }
+        if (COSName.FONT_FILE.equals(key) || COSName.FONT_FILE2.equals(key) || COSName.FONT_FILE3.equals(key)) {
+            return "font";
+        }
+        COSName subtype = stream.getCOSName(COSName.SUBTYPE);
+        if (COSName.IMAGE.equals(subtype)) {
+            return "image";
+        }
+        if (COSName.FORM.equals(subtype)) {
+            return "form";
+        }
+        return "other";
+    }
+}
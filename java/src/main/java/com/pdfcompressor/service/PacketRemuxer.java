@@ -0,0 +1,138 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avcodec.avcodec_parameters_copy;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_alloc_context;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_free_context;
+import static org.bytedeco.ffmpeg.global.avformat.avformat_new_stream;
+import static org.bytedeco.ffmpeg.global.avutil.AV_NOPTS_VALUE;
+import static org.bytedeco.ffmpeg.global.avutil.av_q2d;
+
+// Writes already encoded video and audio packets into a new container without decoding them.
+// The recorder copies stream parameters and time bases from an input context, but that context may hold
+// streams we do not want (cover art, subtitles, data) or the streams may come from two files; so the kept
+// streams are described in a small context of their own and packets are renumbered to match it:
+// video is always stream 0, audio stream 1.
+final class PacketRemuxer {
+
+    private PacketRemuxer() {
+    }
+
+    // Copies the main video and audio stream of one file; every other stream is dropped
+    static void copyMainStreams(File inputFile, File outputFile, String format) throws Exception {
+        AVFormatContext layout = avformat_alloc_context();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile)) {
+            grabber.start();
+            int videoIndex = grabber.getVideoStream();
+            int audioIndex = grabber.getAudioStream();
+            if (videoIndex < 0) {
+                throw new IOException("Input has no video stream");
+            }
+            addStream(layout, grabber.getFormatContext().streams(videoIndex));
+            if (audioIndex >= 0) {
+                addStream(layout, grabber.getFormatContext().streams(audioIndex));
+            }
+
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile,
+                    grabber.getImageWidth(), grabber.getImageHeight(), audioIndex >= 0 ? grabber.getAudioChannels() : 0)) {
+                recorder.setFormat(format);
+                recorder.start(layout);
+
+                // The input is already interleaved, so packets are passed on in file order
+                AVPacket packet;
+                while ((packet = grabber.grabPacket()) != null) {
+                    if (packet.stream_index() == videoIndex) {
+                        packet.stream_index(0);
+                        recorder.recordPacket(packet);
+                    } else if (packet.stream_index() == audioIndex) {
+                        packet.stream_index(1);
+                        recorder.recordPacket(packet);
+                    } else {
+                        av_packet_unref(packet);
+                    }
+                }
+                recorder.stop();
+            }
+        } finally {
+            avformat_free_context(layout);
+        }
+    }
+
+    // Muxes the video stream of one started grabber with the audio stream of another (may be null)
+    static void merge(FFmpegFrameGrabber video, FFmpegFrameGrabber audio, File outputFile, String format) throws Exception {
+        AVFormatContext layout = avformat_alloc_context();
+        try {
+            int videoIndex = video.getVideoStream();
+            AVStream videoIn = video.getFormatContext().streams(videoIndex);
+            addStream(layout, videoIn);
+
+            AVStream audioIn = null;
+            int audioIndex = -1;
+            if (audio != null) {
+                audioIndex = audio.getAudioStream();
+                audioIn = audio.getFormatContext().streams(audioIndex);
+                addStream(layout, audioIn);
+            }
+
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile,
+                    video.getImageWidth(), video.getImageHeight(), audio != null ? audio.getAudioChannels() : 0)) {
+                recorder.setFormat(format);
+                recorder.start(layout);
+
+                // Write in timestamp order so the muxer does not have to buffer one stream behind the other
+                AVPacket videoPacket = nextPacket(video, videoIndex);
+                AVPacket audioPacket = audio != null ? nextPacket(audio, audioIndex) : null;
+                while (videoPacket != null || audioPacket != null) {
+                    boolean videoFirst = audioPacket == null
+                        || (videoPacket != null && seconds(videoPacket, videoIn) <= seconds(audioPacket, audioIn));
+                    if (videoFirst) {
+                        videoPacket.stream_index(0);
+                        recorder.recordPacket(videoPacket);
+                        videoPacket = nextPacket(video, videoIndex);
+                    } else {
+                        audioPacket.stream_index(1);
+                        recorder.recordPacket(audioPacket);
+                        audioPacket = nextPacket(audio, audioIndex);
+                    }
+                }
+                recorder.stop();
+            }
+        } finally {
+            avformat_free_context(layout);
+        }
+    }
+
+    private static void addStream(AVFormatContext layout, AVStream source) throws IOException {
+        AVStream stream = avformat_new_stream(layout, null);
+        if (stream == null || avcodec_parameters_copy(stream.codecpar(), source.codecpar()) < 0) {
+            throw new IOException("Could not describe the output streams");
+        }
+        // Let the output container pick its own tag for the codec; the input container's may not be valid there
+        stream.codecpar().codec_tag(0);
+        stream.time_base(source.time_base());
+        stream.r_frame_rate(source.r_frame_rate());
+        stream.avg_frame_rate(source.avg_frame_rate());
+    }
+
+    private static AVPacket nextPacket(FFmpegFrameGrabber grabber, int streamIndex) throws Exception {
+        AVPacket packet;
+        while ((packet = grabber.grabPacket()) != null && packet.stream_index() != streamIndex) {
+            av_packet_unref(packet);
+        }
+        return packet;
+    }
+
+    private static double seconds(AVPacket packet, AVStream stream) {
+        long timestamp = packet.dts() != AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+        return timestamp * av_q2d(stream.time_base());
+    }
+}
@@ -0,0 +1,206 @@
+package com.pdfcompressor.service;
+
+// k-d tree over small descriptors of the candidate texture patches of one image.
+// Built once per image, then queried for every masked pixel: the tree returns the few patches
+// whose descriptors are closest to the known context, and the caller scores only those exactly.
+class PatchIndex {
+
+    // Mean R, G, B and mean absolute luminance deviation (how "busy" the patch is)
+    static final int DIMENSIONS = 4;
+
+    private final int[] positions;  // pixel index of each candidate's center, in tree order
+    private final float[] features; // DIMENSIONS values per candidate, in tree order
+    private final int size;
+
+    PatchIndex(int[] pixels, byte[] mask, int width, int height, int patchSize, int step) {
+        int radius = patchSize / 2;
+
+        // Same candidate grid as the exhaustive search: patch centers on a coarse grid outside the mask
+        int count = 0;
+        for (int sy = patchSize; sy < height - patchSize; sy += step) {
+            for (int sx = patchSize; sx < width - patchSize; sx += step) {
+                if (mask[sy * width + sx] == 0) {
+                    count++;
+                }
+            }
+        }
+
+        positions = new int[count];
+        features = new float[count * DIMENSIONS];
+        size = count;
+
+        int n = 0;
+        for (int sy = patchSize; sy < height - patchSize; sy += step) {
+            for (int sx = patchSize; sx < width - patchSize; sx += step) {
+                int center = sy * width + sx;
+                if (mask[center] == 0) {
+                    positions[n] = center;
+                    describe(pixels, width, sx, sy, radius, features, n * DIMENSIONS);
+                    n++;
+                }
+            }
+        }
+
+        build(0, size, 0);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Per-thread scratch space so lookups allocate nothing
+    static final class Query {
+        final float[] target = new float[DIMENSIONS];
+        final int[] matches;
+        final float[] distances;
+        int found;
+
+        Query(int maxMatches) {
+            matches = new int[maxMatches];
+            distances = new float[maxMatches];
+        }
+    }
+
+    // Fills query.matches with the pixel indexes of the nearest candidates, closest first
+    void nearest(Query query) {
+        query.found = 0;
+        search(0, size, 0, query);
+    }
+
+    static void describe(int[] pixels, int width, int x, int y, int radius, float[] out, int offset) {
+        int sumR = 0, sumG = 0, sumB = 0;
+        int count = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = (y + dy) * width;
+            for (int dx = -radius; dx <= radius; dx++) {
+                int rgb = pixels[row + x + dx];
+                sumR += (rgb >> 16) & 0xFF;
+                sumG += (rgb >> 8) & 0xFF;
+                sumB += rgb & 0xFF;
+                count++;
+            }
+        }
+
+        float meanLuminance = (sumR + sumG + sumB) / (3f * count);
+        float deviation = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = (y + dy) * width;
+            for (int dx = -radius; dx <= radius; dx++) {
+                int rgb = pixels[row + x + dx];
+                deviation += Math.abs(luminance(rgb) - meanLuminance);
+            }
+        }
+
+        out[offset] = sumR / (float) count;
+        out[offset + 1] = sumG / (float) count;
+        out[offset + 2] = sumB / (float) count;
+        out[offset + 3] = deviation / count;
+    }
+
+    static float luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3f;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, depth % DIMENSIONS);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    // Quickselect: afterwards the k-th element is in place, smaller values before it and larger after
+    private void select(int left, int right, int k, int dimension) {
+        while (right > left) {
+            float pivot = features[((left + right) >>> 1) * DIMENSIONS + dimension];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (features[i * DIMENSIONS + dimension] < pivot) i++;
+                while (features[j * DIMENSIONS + dimension] > pivot) j--;
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        int position = positions[a];
+        positions[a] = positions[b];
+        positions[b] = position;
+
+        int offsetA = a * DIMENSIONS;
+        int offsetB = b * DIMENSIONS;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float feature = features[offsetA + d];
+            features[offsetA + d] = features[offsetB + d];
+            features[offsetB + d] = feature;
+        }
+    }
+
+    private void search(int lo, int hi, int depth, Query query) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int dimension = depth % DIMENSIONS;
+
+        offer(query, mid, squaredDistance(mid, query.target));
+
+        float diff = query.target[dimension] - features[mid * DIMENSIONS + dimension];
+        if (diff < 0) {
+            search(lo, mid, depth + 1, query);
+            if (isWorthVisiting(query, diff)) {
+                search(mid + 1, hi, depth + 1, query);
+            }
+        } else {
+            search(mid + 1, hi, depth + 1, query);
+            if (isWorthVisiting(query, diff)) {
+                search(lo, mid, depth + 1, query);
+            }
+        }
+    }
+
+    private boolean isWorthVisiting(Query query, float planeDistance) {
+        return query.found < query.matches.length || planeDistance * planeDistance < query.distances[query.found - 1];
+    }
+
+    private float squaredDistance(int node, float[] target) {
+        int offset = node * DIMENSIONS;
+        float sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float diff = target[d] - features[offset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private void offer(Query query, int node, float distance) {
+        int capacity = query.matches.length;
+        if (query.found == capacity && distance >= query.distances[capacity - 1]) {
+            return;
+        }
+
+        // Insertion into the short sorted list of best matches
+        int i = query.found < capacity ? query.found++ : capacity - 1;
+        while (i > 0 && query.distances[i - 1] > distance) {
+            query.distances[i] = query.distances[i - 1];
+            query.matches[i] = query.matches[i - 1];
+            i--;
+        }
+        query.distances[i] = distance;
+        query.matches[i] = positions[node];
+    }
+}
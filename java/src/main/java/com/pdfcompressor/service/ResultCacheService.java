@@ -0,0 +1,164 @@
+package com.pdfcompressor.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+public class ResultCacheService {
+
+    // Temporary copies untouched for this long were abandoned by a server that stopped mid-write
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Path cacheDir;
+    private final boolean enabled;
+    private final long maxSizeBytes;
+
+    // Cache file name -> size in bytes, kept in least-recently-used order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    public ResultCacheService(@Value("${cache.enabled:true}") boolean enabled,
+                              @Value("${cache.max-size-mb:1024}") long maxSizeMb,
+                              @Value("${cache.dir:outputs/cache}") String cacheDir) {
+        this.cacheDir = Paths.get(cacheDir);
+        // A budget of 0 stores nothing; the directory is left as it is, like when the cache is turned off
+        this.enabled = enabled && maxSizeMb > 0;
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+        if (!this.enabled) {
+            return;
+        }
+        
+        try {
+            Files.createDirectories(this.cacheDir);
+            loadExistingEntries();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create cache directory", e);
+        }
+    }
+
+    public String buildKey(StoredUpload upload, String operation, Object... parameters) {
+        // The key covers the input content plus everything that changes the output
+        StringBuilder material = new StringBuilder(upload.getSha256()).append('|').append(operation);
+        for (Object parameter : parameters) {
+            material.append('|').append(parameter);
+        }
+        byte[] hash = UploadStorageService.newSha256().digest(material.toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash);
+    }
+
+    public boolean copyCachedResult(String key, String extension, Path target) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        
+        String fileName = key + "." + extension;
+        synchronized (this) {
+            // get() also marks the entry as most recently used
+            if (entries.get(fileName) == null) {
+                return false;
+            }
+        }
+        
+        try {
+            Path cachedFile = cacheDir.resolve(fileName);
+            Files.copy(cachedFile, target, StandardCopyOption.REPLACE_EXISTING);
+            
+            // Keep the on-disk recency in step with the index for the next restart
+            Files.setLastModifiedTime(cachedFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            // The file disappeared underneath us, forget about it
+            synchronized (this) {
+                Long size = entries.remove(fileName);
+                if (size != null) {
+                    totalSize -= size;
+                }
+            }
+            return false;
+        }
+    }
+
+    public void storeResult(String key, String extension, Path result) {
+        if (!enabled) {
+            return;
+        }
+        
+        String fileName = key + "." + extension;
+        try {
+            long size = Files.size(result);
+            if (size > maxSizeBytes) {
+                return;
+            }
+            
+            // Copy to a temporary name first so readers never see a partial file
+            Path tempFile = cacheDir.resolve(fileName + "." + UUID.randomUUID() + ".tmp");
+            Files.copy(result, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, cacheDir.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            
+            synchronized (this) {
+                Long previous = entries.put(fileName, size);
+                totalSize += size - (previous != null ? previous : 0);
+                evictOverBudget();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not cache result " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(cacheDir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                System.out.println("Could not evict cached result " + eldest.getKey() + ": " + e.getMessage());
+            }
+            totalSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void loadExistingEntries() throws IOException {
+        // Rebuild the index from disk, oldest first, so eviction order survives restarts
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            files = stream
+                .filter(Files::isRegularFile)
+                .sorted(Comparator.comparingLong(path -> path.toFile().lastModified()))
+                .collect(Collectors.toList());
+        }
+        
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            if (fileName.endsWith(".tmp")) {
+                // Another server sharing the directory may still be writing it; only clear leftovers from a crash
+                if (file.toFile().lastModified() < System.currentTimeMillis() - STALE_TEMP_MILLIS) {
+                    Files.deleteIfExists(file);
+                }
+                continue;
+            }
+            long size = Files.size(file);
+            entries.put(fileName, size);
+            totalSize += size;
+        }
+        evictOverBudget();
+    }
+}
@@ -0,0 +1,304 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.bytedeco.ffmpeg.global.avcodec.AV_PKT_FLAG_KEY;
+import static org.bytedeco.ffmpeg.global.avcodec.av_packet_unref;
+import static org.bytedeco.ffmpeg.global.avutil.AV_NOPTS_VALUE;
+
+// Encodes one video as several parts at the same time.
+// The input is split at keyframes into time ranges. Each range is decoded and encoded by its own
+// grabber/recorder pair into a video-only file, while the audio track is encoded once, in full, next to them.
+// The parts are then joined through FFmpeg's concat demuxer and muxed with the audio by packet copy,
+// so nothing is encoded twice. Video timestamps come from frame counts exactly as in a single-pass encode,
+// which keeps the audio in sync.
+class SegmentedVideoTranscoder {
+
+    // Intermediate container for the parts. NUT stores timestamps in the encoder's own time base
+    // (1/frame rate), so the joined output gets exactly the timestamps of a single-pass encode.
+    private static final String PART_FORMAT = "nut";
+
+    // How far before a part's first keyframe to seek, so the seek never lands after it
+    private static final long SEEK_MARGIN_MICROS = 1_000_000L;
+
+    private final ExecutorService pool;
+    private final int segmentCount;
+    private final long minDurationMicros;
+
+    SegmentedVideoTranscoder(ExecutorService pool, int segmentCount, int minDurationSeconds) {
+        this.pool = pool;
+        this.segmentCount = segmentCount;
+        this.minDurationMicros = minDurationSeconds * 1_000_000L;
+    }
+
+    // Returns false without writing anything if the input cannot be split usefully (too short, too few keyframes);
+    // the caller then encodes it in a single pass
+    boolean transcode(File inputFile, File outputFile, VideoEncodeSettings settings, EncodeMonitor monitor) throws Exception {
+        if (segmentCount < 2 || settings.getFrameRate() <= 0) {
+            return false;
+        }
+
+        List<Long> splitPoints = findSplitPoints(inputFile);
+        if (splitPoints.isEmpty()) {
+            return false;
+        }
+
+        Path workDir = Files.createTempDirectory("video-parts-");
+        try {
+            AtomicBoolean cancelled = new AtomicBoolean();
+
+            // Part i covers the frames with timestamps in [bounds[i], bounds[i + 1])
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(Long.MIN_VALUE);
+            bounds.addAll(splitPoints);
+            bounds.add(Long.MAX_VALUE);
+
+            // The parts share the encoder threads granted to this video
+            int partThreads = Math.max(1, settings.getThreads() / (bounds.size() - 1));
+
+            List<File> partFiles = new ArrayList<>();
+            List<CompletableFuture<Integer>> parts = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                File partFile = workDir.resolve("part-" + i + ".nut").toFile();
+                long from = bounds.get(i);
+                long to = bounds.get(i + 1);
+                partFiles.add(partFile);
+                monitor.addOutput(partFile);
+                parts.add(CompletableFuture.supplyAsync(
+                    () -> encodePart(inputFile, partFile, settings, partThreads, from, to, cancelled, monitor), pool));
+            }
+
+            File audioFile = null;
+            CompletableFuture<Integer> audio = null;
+            if (settings.getAudioChannels() > 0) {
+                File audioPart = workDir.resolve("audio.nut").toFile();
+                audioFile = audioPart;
+                monitor.addOutput(audioPart);
+                audio = CompletableFuture.supplyAsync(
+                    () -> encodeAudio(inputFile, audioPart, settings, cancelled, monitor), pool);
+            }
+
+            List<CompletableFuture<Integer>> all = new ArrayList<>(parts);
+            if (audio != null) {
+                all.add(audio);
+            }
+            awaitAll(all, cancelled);
+
+            // List the parts with their exact lengths, so each one starts where the previous one ended
+            StringBuilder concatList = new StringBuilder("ffconcat version 1.0\n");
+            for (int i = 0; i < partFiles.size(); i++) {
+                int frames = parts.get(i).join();
+                if (frames == 0) {
+                    continue;
+                }
+                concatList.append("file '").append(partFiles.get(i).getAbsolutePath().replace("'", "'\\''")).append("'\n");
+                concatList.append(String.format(Locale.ROOT, "duration %.6f%n", frames / settings.getFrameRate()));
+            }
+            Path listFile = workDir.resolve("parts.ffconcat");
+            Files.write(listFile, concatList.toString().getBytes(StandardCharsets.UTF_8));
+
+            mux(listFile.toFile(), audioFile, outputFile, settings);
+            return true;
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    private List<Long> findSplitPoints(File inputFile) throws Exception {
+        // Read (but do not decode) every packet once to find where the keyframes are
+        List<Long> keyframes = new ArrayList<>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile)) {
+            grabber.start();
+            int videoStream = grabber.getVideoStream();
+            if (videoStream < 0) {
+                return Collections.emptyList();
+            }
+            AVRational timeBase = grabber.getFormatContext().streams(videoStream).time_base();
+
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                if (packet.stream_index() == videoStream && packet.pts() != AV_NOPTS_VALUE) {
+                    // Same microsecond timestamps the grabber reports for decoded frames
+                    long timestamp = 1000000L * packet.pts() * timeBase.num() / timeBase.den();
+                    first = Math.min(first, timestamp);
+                    last = Math.max(last, timestamp);
+                    if ((packet.flags() & AV_PKT_FLAG_KEY) != 0) {
+                        keyframes.add(timestamp);
+                    }
+                }
+                av_packet_unref(packet);
+            }
+        }
+
+        if (keyframes.isEmpty() || last - first < minDurationMicros) {
+            return Collections.emptyList();
+        }
+        keyframes.sort(Comparator.naturalOrder());
+
+        // Split at the first keyframe at or after each 1/N mark
+        List<Long> splitPoints = new ArrayList<>();
+        long previous = first;
+        for (int i = 1; i < segmentCount; i++) {
+            long target = first + (last - first) * i / segmentCount;
+            for (long keyframe : keyframes) {
+                if (keyframe >= target && keyframe > previous) {
+                    splitPoints.add(keyframe);
+                    previous = keyframe;
+                    break;
+                }
+            }
+        }
+        return splitPoints;
+    }
+
+    private int encodePart(File inputFile, File partFile, VideoEncodeSettings settings, int threads,
+                           long from, long to, AtomicBoolean cancelled, EncodeMonitor monitor) {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile);
+             FFmpegFrameRecorder recorder = settings.createVideoRecorder(partFile, PART_FORMAT, threads);
+             FrameScaler scaler = settings.createScaler()) {
+            settings.prepareGrabber(grabber);
+            grabber.start();
+            if (from != Long.MIN_VALUE) {
+                // The seek is relative to the stream start; it may land a little early, and frames before
+                // the range belong to the previous part and are skipped below
+                AVStream videoStream = grabber.getFormatContext().streams(grabber.getVideoStream());
+                long streamStart = videoStream.start_time() != AV_NOPTS_VALUE
+                    ? 1000000L * videoStream.start_time() * videoStream.time_base().num() / videoStream.time_base().den()
+                    : 0;
+                grabber.setVideoTimestamp(Math.max(0, from - streamStart - SEEK_MARGIN_MICROS));
+            }
+            recorder.start();
+
+            int frames = 0;
+            while (true) {
+                long decodeStart = System.nanoTime();
+                Frame frame = grabber.grabImage();
+                long encodeStart = System.nanoTime();
+                if (frame == null) {
+                    break;
+                }
+                if (cancelled.get()) {
+                    throw new CancellationException("Another part of the video failed");
+                }
+                if (frame.timestamp >= to) {
+                    break;
+                }
+                // Frames before the range were only decoded
+                int encoded = 0;
+                if (frame.timestamp >= from) {
+                    if (scaler != null) {
+                        encoded = scaler.record(frame, recorder);
+                    } else {
+                        recorder.record(frame);
+                        encoded = 1;
+                    }
+                }
+                monitor.frame(encoded, encodeStart - decodeStart, System.nanoTime() - encodeStart);
+                frames += encoded;
+            }
+            recorder.stop();
+            return frames;
+        } catch (Exception e) {
+            cancelled.set(true);
+            throw new IllegalStateException("Error encoding video part: " + e.getMessage(), e);
+        }
+    }
+
+    private int encodeAudio(File inputFile, File audioFile, VideoEncodeSettings settings, AtomicBoolean cancelled,
+                            EncodeMonitor monitor) {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile);
+             FFmpegFrameRecorder recorder = settings.createAudioRecorder(audioFile, PART_FORMAT)) {
+            grabber.start();
+            recorder.start();
+
+            int frames = 0;
+            while (true) {
+                long decodeStart = System.nanoTime();
+                Frame frame = grabber.grabSamples();
+                long encodeStart = System.nanoTime();
+                if (frame == null) {
+                    break;
+                }
+                if (cancelled.get()) {
+                    throw new CancellationException("Another part of the video failed");
+                }
+                recorder.record(frame);
+                monitor.frame(0, encodeStart - decodeStart, System.nanoTime() - encodeStart);
+                frames++;
+            }
+            recorder.stop();
+            return frames;
+        } catch (Exception e) {
+            cancelled.set(true);
+            throw new IllegalStateException("Error encoding audio track: " + e.getMessage(), e);
+        }
+    }
+
+    private void awaitAll(List<CompletableFuture<Integer>> tasks, AtomicBoolean cancelled) throws Exception {
+        // Wait for every task, even after a failure, so none is still writing into the work directory
+        Exception failure = null;
+        for (CompletableFuture<Integer> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (ExecutionException e) {
+                cancelled.set(true);
+                // Keep the original error, not the cancellations it caused in the other parts
+                if (failure == null || failure.getCause() instanceof CancellationException) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void mux(File concatList, File audioFile, File outputFile, VideoEncodeSettings settings) throws Exception {
+        try (FFmpegFrameGrabber video = new FFmpegFrameGrabber(concatList);
+             FFmpegFrameGrabber audio = audioFile != null ? new FFmpegFrameGrabber(audioFile) : null) {
+            video.setFormat("concat");
+            video.setOption("safe", "0");
+            video.start();
+            if (audio != null) {
+                audio.start();
+            }
+            PacketRemuxer.merge(video, audio, outputFile, settings.getFormat());
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.out.println("Could not remove temporary video parts in " + dir + ": " + e.getMessage());
+        }
+    }
+}
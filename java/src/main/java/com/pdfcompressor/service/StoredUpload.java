@@ -0,0 +1,34 @@
+package com.pdfcompressor.service;
+
+import java.nio.file.Path;
+
+public class StoredUpload {
+    private final String fileId;
+    private final Path path;
+    private final long size;
+    private final String sha256;
+
+    public StoredUpload(String fileId, Path path, long size, String sha256) {
+        this.fileId = fileId;
+        this.path = path;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // Hex SHA-256 of the uploaded bytes, computed while the upload was copied to disk
+    public String getSha256() {
+        return sha256;
+    }
+}
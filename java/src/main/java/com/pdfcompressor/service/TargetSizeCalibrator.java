@@ -0,0 +1,85 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Fast first pass of a target-size encode. Encoders miss a requested bitrate by an amount that depends on
+// the content, so a few short samples spread over the video are encoded with the final settings, and the
+// ratio of requested to measured bitrate corrects the bitrate of the one real encode.
+class TargetSizeCalibrator {
+
+    // Where the samples start, as fractions of the duration, and how long each runs
+    private static final double[] SAMPLE_POSITIONS = {0.2, 0.5, 0.8};
+    private static final long SAMPLE_MICROS = 3_000_000L;
+
+    // Shorter videos are encoded straight away; the samples would cover most of them anyway
+    private static final long MIN_DURATION_MICROS = 20_000_000L;
+
+    // How far one calibration may move the bitrate either way
+    private static final double MIN_CORRECTION = 0.5;
+    private static final double MAX_CORRECTION = 1.5;
+
+    private static final String SAMPLE_FORMAT = "nut";
+
+    // Returns the factor to multiply the video bitrate with; 1 when the video is too short to sample
+    double calibrate(File inputFile, VideoEncodeSettings settings, long durationMicros) throws Exception {
+        if (durationMicros < MIN_DURATION_MICROS || settings.getFrameRate() <= 0) {
+            return 1.0;
+        }
+
+        Path sampleFile = Files.createTempFile("video-sample-", "." + SAMPLE_FORMAT);
+        try {
+            long bits = 0;
+            long frames = 0;
+            for (double position : SAMPLE_POSITIONS) {
+                long start = (long) (durationMicros * position);
+                frames += encodeSample(inputFile, sampleFile.toFile(), settings, start, start + SAMPLE_MICROS);
+                bits += Files.size(sampleFile) * 8;
+            }
+            if (frames == 0 || bits == 0) {
+                return 1.0;
+            }
+            double measured = bits / (frames / settings.getFrameRate());
+            double correction = settings.getVideoBitrate() / measured;
+            System.out.println(String.format("Target-size calibration: asked for %d bit/s, samples came out at %.0f bit/s",
+                settings.getVideoBitrate(), measured));
+            return Math.max(MIN_CORRECTION, Math.min(MAX_CORRECTION, correction));
+        } finally {
+            Files.deleteIfExists(sampleFile);
+        }
+    }
+
+    private long encodeSample(File inputFile, File sampleFile, VideoEncodeSettings settings,
+                              long from, long to) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile);
+             FFmpegFrameRecorder recorder = settings.createVideoRecorder(sampleFile, SAMPLE_FORMAT, settings.getThreads());
+             FrameScaler scaler = settings.createScaler()) {
+            settings.prepareGrabber(grabber);
+            grabber.start();
+            grabber.setVideoTimestamp(from);
+            recorder.start();
+
+            long frames = 0;
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null && frame.timestamp < to) {
+                // The seek lands on the keyframe before the sample; frames up to its start are skipped
+                if (frame.timestamp < from) {
+                    continue;
+                }
+                if (scaler != null) {
+                    frames += scaler.record(frame, recorder);
+                } else {
+                    recorder.record(frame);
+                    frames++;
+                }
+            }
+            recorder.stop();
+            return frames;
+        }
+    }
+}
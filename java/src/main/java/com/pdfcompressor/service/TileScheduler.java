@@ -0,0 +1,102 @@
+package com.pdfcompressor.service;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits an image into square tiles and runs one pass over all of them in a ForkJoinPool.
+// Every tile writes only its own pixels; stages that read neighbours do so through the shared
+// full-image input arrays, or through a halo around the tile (see Tile.withHalo) for image operations.
+class TileScheduler {
+
+    // Tiles handed to one fork/join task before it stops splitting
+    private static final int TILES_PER_TASK = 1;
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    // pool == null runs every tile on the calling thread
+    TileScheduler(ForkJoinPool pool, int tileSize) {
+        this.pool = pool;
+        this.tileSize = Math.max(16, tileSize);
+    }
+
+    @FunctionalInterface
+    interface TileTask {
+        void process(Tile tile);
+    }
+
+    static final class Tile {
+        final int index;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Tile(int index, int x, int y, int width, int height) {
+            this.index = index;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        // Tile grown by the kernel radius on every side, clipped to the image
+        Rectangle withHalo(int halo, int imageWidth, int imageHeight) {
+            int x0 = Math.max(0, x - halo);
+            int y0 = Math.max(0, y - halo);
+            int x1 = Math.min(imageWidth, x + width + halo);
+            int y1 = Math.min(imageHeight, y + height + halo);
+            return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+        }
+    }
+
+    List<Tile> tiles(int width, int height) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(tiles.size(), x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    // Runs the task for every tile and returns once all of them are done (a barrier between passes)
+    void run(List<Tile> tiles, TileTask task) {
+        if (pool == null || tiles.size() <= 1) {
+            for (Tile tile : tiles) {
+                task.process(tile);
+            }
+            return;
+        }
+        pool.invoke(new TileAction(tiles, 0, tiles.size(), task));
+    }
+
+    private static final class TileAction extends RecursiveAction {
+        private final List<Tile> tiles;
+        private final int from;
+        private final int to;
+        private final TileTask task;
+
+        TileAction(List<Tile> tiles, int from, int to, TileTask task) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TILES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    task.process(tiles.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TileAction(tiles, from, mid, task), new TileAction(tiles, mid, to, task));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.pdfcompressor.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+@Service
+public class UploadStorageService {
+
+    // Upper bound on how much of an upload is copied per transfer call
+    private final long chunkSize;
+
+    public UploadStorageService(@Value("${upload.transfer-chunk-kb:1024}") int chunkSizeKb) {
+        this.chunkSize = Math.max(8, chunkSizeKb) * 1024L;
+    }
+
+    public StoredUpload store(MultipartFile file, String fileId, Path target) throws IOException {
+        try (InputStream inputStream = file.getInputStream()) {
+            return store(inputStream, fileId, target);
+        }
+    }
+
+    // Same as above for data that does not come from a multipart part, e.g. an entry of an uploaded ZIP;
+    // the stream is read to its end but not closed
+    public StoredUpload store(InputStream inputStream, String fileId, Path target) throws IOException {
+        MessageDigest digest = newSha256();
+        
+        try (FileChannel destination = FileChannel.open(target,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            // Multipart parts spooled to disk come back as file streams; reading their channel fills the
+            // transfer buffer directly, where the stream adapter would copy every chunk through a byte array.
+            // Either way the bytes pass through the digest below, so this is never a kernel-side copy
+            ReadableByteChannel source = inputStream instanceof FileInputStream
+                ? ((FileInputStream) inputStream).getChannel()
+                : Channels.newChannel(inputStream);
+            
+            // Hash the bytes as they pass through, so callers never have to re-read the file
+            ReadableByteChannel hashingSource = new DigestingChannel(source, digest);
+            
+            long position = 0;
+            long transferred;
+            while ((transferred = destination.transferFrom(hashingSource, position, chunkSize)) > 0) {
+                position += transferred;
+            }
+            return new StoredUpload(fileId, target, position, HexFormat.of().formatHex(digest.digest()));
+        }
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class DigestingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final MessageDigest digest;
+
+        DigestingChannel(ReadableByteChannel source, MessageDigest digest) {
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int read = source.read(dst);
+            if (read > 0) {
+                ByteBuffer chunk = dst.duplicate();
+                chunk.limit(dst.position());
+                chunk.position(start);
+                digest.update(chunk);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
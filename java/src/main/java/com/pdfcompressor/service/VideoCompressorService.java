@@ -1,8 +1,10 @@
 package com.pdfcompressor.service;
 
+import com.pdfcompressor.model.VideoProgress;
+import jakarta.annotation.PreDestroy;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.FFmpegFrameRecorder;
-import org.bytedeco.javacv.Frame;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -13,6 +15,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class VideoCompressorService {
@@ -20,33 +25,106 @@ public class VideoCompressorService {
     private final Path uploadDir = Paths.get("uploads");
     private final Path outputDir = Paths.get("outputs");
 
-    public VideoCompressorService() {
+    private final UploadStorageService uploadStorageService;
+    private final VideoMetrics videoMetrics;
+    private final EncoderPolicy encoderPolicy;
+
+    // Segmented encoding settings (see application.properties)
+    private final boolean segmentedEncoding;
+    private final ExecutorService segmentPool;
+    private final SegmentedVideoTranscoder segmentedTranscoder;
+
+    // Pre-flight check that skips encodes which would not make the file meaningfully smaller
+    private final VideoPreflight preflight;
+    private final TargetSizeCalibrator targetSizeCalibrator = new TargetSizeCalibrator();
+
+    // Single-pass encodes decode on a thread of their own, up to pipelineDepth frames ahead of the encoder
+    private final ExecutorService decodePool;
+    private final int pipelineDepth;
+
+    public VideoCompressorService(
+            UploadStorageService uploadStorageService,
+            VideoMetrics videoMetrics,
+            EncoderPolicy encoderPolicy,
+            @Value("${video.segmented.enabled:true}") boolean segmentedEncoding,
+            @Value("${video.segmented.segments:4}") int segments,
+            @Value("${video.segmented.min-duration-seconds:60}") int minDurationSeconds,
+            @Value("${video.segmented.max-workers:0}") int maxWorkers,
+            @Value("${video.preflight.enabled:true}") boolean preflightEnabled,
+            @Value("${video.preflight.min-bits-per-pixel:0.06}") double minBitsPerPixel,
+            @Value("${video.preflight.min-savings:0.10}") double minSavings,
+            @Value("${video.pipeline.queue-depth:4}") int pipelineDepth) {
+        this.uploadStorageService = uploadStorageService;
+        this.videoMetrics = videoMetrics;
+        this.encoderPolicy = encoderPolicy;
         try {
             Files.createDirectories(uploadDir);
             Files.createDirectories(outputDir);
         } catch (IOException e) {
             throw new RuntimeException("Could not create upload directories", e);
         }
+
+        // Parts of all videos share one pool; 0 means one worker per core
+        int poolSize = maxWorkers > 0 ? maxWorkers : Runtime.getRuntime().availableProcessors();
+        this.segmentedEncoding = segmentedEncoding && segments > 1;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.segmentPool = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "video-segment-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.segmentedTranscoder = new SegmentedVideoTranscoder(segmentPool, segments, minDurationSeconds);
+        this.preflight = preflightEnabled ? new VideoPreflight(minBitsPerPixel, minSavings) : null;
+
+        // With a single core there is nothing to overlap, and the frame copies would only add work
+        this.pipelineDepth = Runtime.getRuntime().availableProcessors() > 1 ? pipelineDepth : 0;
+        AtomicInteger decodeThreadCount = new AtomicInteger();
+        this.decodePool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "video-decode-" + decodeThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    public String compressVideo(MultipartFile file, int compressionLevel) throws IOException {
+    @PreDestroy
+    public void shutdown() {
+        segmentPool.shutdownNow();
+        decodePool.shutdownNow();
+    }
+
+    public String compressVideo(MultipartFile file, int compressionLevel, int maxResolution,
+                                long targetBytes) throws IOException {
+        StoredUpload upload = saveUpload(file);
+        return compressStoredVideo(upload, compressionLevel, maxResolution, targetBytes, new VideoProgress());
+    }
+
+    public StoredUpload saveUpload(MultipartFile file) throws IOException {
         // Generate unique file names
         String originalFileName = file.getOriginalFilename();
         String fileExtension = getFileExtension(originalFileName);
         String fileId = file.getOriginalFilename();
         
         Path inputPath = uploadDir.resolve(fileId + "." + fileExtension);
-        Path outputPath = outputDir.resolve(fileId + "_compressed." + fileExtension);
 
         // Save the uploaded file
-        Files.write(inputPath, file.getBytes());
+        return uploadStorageService.store(file, fileId, inputPath);
+    }
+
+    // targetBytes > 0 aims the output at that size instead of the compression level's quality.
+    // progress is updated while the video is encoded, so a job can report it
+    public String compressStoredVideo(StoredUpload upload, int compressionLevel, int maxResolution,
+                                      long targetBytes, VideoProgress progress) throws IOException {
+        String fileId = upload.getFileId();
+        String fileExtension = getFileExtension(fileId);
+        Path inputPath = upload.getPath();
+        Path outputPath = outputDir.resolve(fileId + "_compressed." + fileExtension);
 
         // Get original file size
-        long originalSize = Files.size(inputPath);
+        long originalSize = upload.getSize();
 
         try {
             // Compress the video
-            compressVideoFile(inputPath.toFile(), outputPath.toFile(), compressionLevel);
+            compressVideoFile(inputPath.toFile(), outputPath.toFile(), compressionLevel, maxResolution, targetBytes, progress);
 
             // Check if compression actually reduced the file size
             long compressedSize = Files.size(outputPath);
@@ -56,6 +134,9 @@ public class VideoCompressorService {
                 Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
                 System.out.println("Compression increased file size. Using original file instead.");
             }
+        } catch (IllegalArgumentException e) {
+            // The request cannot be met, e.g. a target size too small for the video; the caller reports it
+            throw e;
         } catch (Exception e) {
             // If any error occurs during compression, use the original file
             Files.copy(inputPath, outputPath, StandardCopyOption.REPLACE_EXISTING);
@@ -66,88 +147,103 @@ public class VideoCompressorService {
         return fileId + "_compressed." + fileExtension;
     }
 
-    private void compressVideoFile(File inputFile, File outputFile, int compressionLevel) throws Exception {
-        // Load the video
-        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile);
-        grabber.start();
-        
-        // Calculate target bitrate based on compression level (1-100)
-        // Higher compression level means lower bitrate
-        double qualityFactor = (100 - compressionLevel) / 100.0;
-        
-        // Get original video parameters
-        int originalWidth = grabber.getImageWidth();
-        int originalHeight = grabber.getImageHeight();
-        double frameRate = grabber.getVideoFrameRate();
-        int originalVideoBitrate = grabber.getVideoBitrate();
-        int originalAudioBitrate = grabber.getAudioBitrate();
-        
-        // Calculate new parameters
-        int newVideoBitrate = originalVideoBitrate > 0 ? 
-            (int)(originalVideoBitrate * qualityFactor) : 
-            calculateDefaultVideoBitrate(originalWidth, originalHeight, qualityFactor);
-            
-        int newAudioBitrate = originalAudioBitrate > 0 ? 
-            (int)(originalAudioBitrate * qualityFactor) : 
-            128000; // Default audio bitrate
-        
-        // Create a recorder with the calculated parameters
-        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(
-            outputFile,
-            originalWidth,
-            originalHeight,
-            grabber.getAudioChannels()
-        );
-        
-        // Set video parameters
-        recorder.setFormat(grabber.getFormat());
-        recorder.setFrameRate(frameRate);
-        recorder.setVideoBitrate(newVideoBitrate);
-        
-        // Set audio parameters if the video has audio
-        if (grabber.getAudioChannels() > 0) {
-            recorder.setAudioChannels(grabber.getAudioChannels());
-            recorder.setAudioBitrate(newAudioBitrate);
-            recorder.setSampleRate(grabber.getSampleRate());
+    private void compressVideoFile(File inputFile, File outputFile, int compressionLevel, int maxResolution,
+                                   long targetBytes, VideoProgress progress) throws Exception {
+        // Read the input parameters and derive the output settings from them; no encoder threads are held yet,
+        // so inputs that are kept or remuxed, and targets that cannot be met, never wait for them
+        VideoEncodeSettings settings;
+        VideoPreflight.Decision decision = null;
+        long totalFrames;
+        long durationMicros;
+        try (FFmpegFrameGrabber probe = new FFmpegFrameGrabber(inputFile)) {
+            probe.start();
+            if (targetBytes <= 0) {
+                settings = VideoEncodeSettings.fromInput(probe, compressionLevel, maxResolution, encoderPolicy);
+                if (preflight != null) {
+                    decision = preflight.analyze(probe, inputFile.length(), settings);
+                }
+            } else if (inputFile.length() <= targetBytes) {
+                settings = VideoEncodeSettings.fromInput(probe, compressionLevel, maxResolution, encoderPolicy);
+                decision = new VideoPreflight.Decision(VideoPreflight.Action.KEEP_ORIGINAL, "already within the target size");
+            } else {
+                settings = VideoEncodeSettings.forTargetSize(probe, compressionLevel, targetBytes, maxResolution, encoderPolicy);
+            }
+            totalFrames = probe.getLengthInVideoFrames();
+            durationMicros = probe.getLengthInTime();
         }
-        
-        // Use H.264 for video and AAC for audio (widely compatible)
-        recorder.setVideoCodec(org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_H264);
-        recorder.setAudioCodec(org.bytedeco.ffmpeg.global.avcodec.AV_CODEC_ID_AAC);
-        
-        // Add quality-related options
-        recorder.setVideoOption("crf", String.valueOf(Math.min(51, Math.max(18, 18 + (compressionLevel / 3)))));
-        recorder.setVideoOption("preset", getPresetForQuality(compressionLevel));
-        
-        // Start the recorder
-        recorder.start();
-        
-        // Process each frame
-        Frame frame;
-        while ((frame = grabber.grab()) != null) {
-            recorder.record(frame);
+
+        try (EncodeMonitor monitor = videoMetrics.start(progress, totalFrames)) {
+            // Already efficient inputs skip the encode: the streams are copied as they are
+            if (decision != null && decision.action != VideoPreflight.Action.ENCODE) {
+                System.out.println("Skipping re-encode (" + decision.reason + "): " + decision.action);
+                if (decision.action == VideoPreflight.Action.REMUX) {
+                    PacketRemuxer.copyMainStreams(inputFile, outputFile, settings.getFormat());
+                    monitor.complete("remux", outputFile);
+                } else {
+                    Files.copy(inputFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    monitor.complete("keep", outputFile);
+                }
+                return;
+            }
+
+            // The lease holds this video's share of the encoder threads while its samples and the encode run
+            try (EncoderPolicy.Lease encoderLease = encoderPolicy.acquire()) {
+                settings = settings.withEncoderThreads(encoderLease.getThreads());
+
+                // A target size is met by one encode at a bitrate corrected from a few encoded samples
+                if (targetBytes > 0) {
+                    double correction = targetSizeCalibrator.calibrate(inputFile, settings, durationMicros);
+                    settings = settings.withVideoBitrate((int) (settings.getVideoBitrate() * correction));
+                }
+
+                // Long videos are split at keyframes and the parts encoded side by side
+                if (segmentedEncoding && segmentedTranscoder.transcode(inputFile, outputFile, settings, monitor)) {
+                    monitor.complete("segmented", outputFile);
+                } else {
+                    compressInSinglePass(inputFile, outputFile, settings, monitor);
+                    monitor.complete("single", outputFile);
+                }
+            }
+            if (targetBytes > 0) {
+                System.out.println("Target size " + targetBytes + " bytes, output " + outputFile.length() + " bytes");
+            }
         }
-        
-        // Close resources
-        recorder.stop();
-        recorder.release();
-        grabber.stop();
-        grabber.release();
     }
-    
-    private int calculateDefaultVideoBitrate(int width, int height, double qualityFactor) {
-        // Calculate a reasonable bitrate based on resolution
-        int baseBitrate = (width * height * 30) / 8000; // bits per pixel * 30fps / 8000
-        return (int)(baseBitrate * qualityFactor);
-    }
-    
-    private String getPresetForQuality(int compressionLevel) {
-        // Map compression level to FFmpeg presets
-        if (compressionLevel < 20) return "veryslow"; // Best quality, slowest
-        if (compressionLevel < 40) return "slower";
-        if (compressionLevel < 60) return "medium";
-        if (compressionLevel < 80) return "faster";
-        return "veryfast"; // Lowest quality, fastest
+
+    private void compressInSinglePass(File inputFile, File outputFile, VideoEncodeSettings settings,
+                                      EncodeMonitor monitor) throws Exception {
+        // Grabber, recorder and scaler are closed however the encode ends, so a failed frame does not leak
+        // their native contexts or the output file handle
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputFile);
+             // Create a recorder with the calculated parameters
+             FFmpegFrameRecorder recorder = settings.createRecorder(outputFile);
+             // Video frames pass through the scale filter when the output is smaller than the input
+             FrameScaler scaler = settings.createScaler()) {
+            // Load the video
+            settings.prepareGrabber(grabber);
+            grabber.start();
+            
+            // Start the recorder
+            recorder.start();
+            monitor.addOutput(outputFile);
+            
+            // Process each frame: decoding runs ahead on its own thread while this one encodes
+            FramePipeline pipeline = new FramePipeline(decodePool, pipelineDepth);
+            pipeline.run(grabber::grab, (frame, decodeNanos) -> {
+                long encodeStart = System.nanoTime();
+                int frames;
+                if (scaler != null && frame.image != null) {
+                    frames = scaler.record(frame, recorder);
+                } else {
+                    recorder.record(frame);
+                    frames = frame.image != null ? 1 : 0;
+                }
+                monitor.frame(frames, decodeNanos, System.nanoTime() - encodeStart);
+            });
+            
+            // Write the trailer; close() then releases everything
+            recorder.stop();
+        }
     }
 
     private String getFileExtension(String filename) {
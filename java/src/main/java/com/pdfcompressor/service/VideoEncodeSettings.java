@@ -0,0 +1,299 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.File;
+
+// Output parameters for one video compression, derived once from the input and the compression level.
+// Both the single-pass and the segmented transcoder configure their recorders from the same instance,
+// so every part of a segmented encode uses identical settings.
+class VideoEncodeSettings {
+
+    // Resolution ladder: from each compression level on, the shorter side is capped at this many pixels
+    private static final int[][] RESOLUTION_LADDER = {
+        {80, 480},
+        {60, 720},
+        {40, 1080}
+    };
+
+    // Target-size encodes: share of the target kept free for container overhead and rate-control error,
+    // the fewest bits per pixel accepted before the resolution steps down, and the steps it can take
+    private static final double TARGET_SIZE_MARGIN = 0.04;
+    private static final double MIN_TARGET_BITS_PER_PIXEL = 0.05;
+    private static final int[] TARGET_SIZE_LADDER = {2160, 1440, 1080, 720, 540, 480, 360, 240};
+    private static final int MIN_TARGET_VIDEO_BITRATE = 50000;
+
+    private final String format;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final int videoBitrate;
+    private final int audioChannels;
+    private final int audioBitrate;
+    private final int sampleRate;
+    private final EncoderPolicy.Choice encoder;
+    // The encoder follows videoBitrate instead of the policy's CRF (target-size mode)
+    private final boolean bitrateControlled;
+
+    private VideoEncodeSettings(String format, int sourceWidth, int sourceHeight, int width, int height,
+                                double frameRate, int videoBitrate, int audioChannels, int audioBitrate,
+                                int sampleRate, EncoderPolicy.Choice encoder, boolean bitrateControlled) {
+        this.format = format;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.videoBitrate = videoBitrate;
+        this.audioChannels = audioChannels;
+        this.audioBitrate = audioBitrate;
+        this.sampleRate = sampleRate;
+        this.encoder = encoder;
+        this.bitrateControlled = bitrateControlled;
+    }
+
+    // maxResolution caps the shorter side of the output (720 for 720p); 0 picks it from the ladder.
+    // Preset, CRF and tune come from the encoder policy; the encoder runs on one thread until
+    // withEncoderThreads gives it the threads of a lease.
+    static VideoEncodeSettings fromInput(FFmpegFrameGrabber grabber, int compressionLevel, int maxResolution,
+                                         EncoderPolicy encoderPolicy) {
+        // Calculate target bitrate based on compression level (1-100)
+        // Higher compression level means lower bitrate
+        double qualityFactor = (100 - compressionLevel) / 100.0;
+
+        // Get original video parameters
+        int originalWidth = grabber.getImageWidth();
+        int originalHeight = grabber.getImageHeight();
+        int originalVideoBitrate = grabber.getVideoBitrate();
+        int originalAudioBitrate = grabber.getAudioBitrate();
+
+        // Calculate new parameters
+        int newVideoBitrate = originalVideoBitrate > 0 ?
+            (int)(originalVideoBitrate * qualityFactor) :
+            calculateDefaultVideoBitrate(originalWidth, originalHeight, qualityFactor);
+
+        int newAudioBitrate = originalAudioBitrate > 0 ?
+            (int)(originalAudioBitrate * qualityFactor) :
+            128000; // Default audio bitrate
+
+        // Downscale along the ladder; fewer pixels need proportionally fewer bits for the same quality
+        int cap = maxResolution > 0 ? maxResolution : ladderResolution(compressionLevel);
+        int[] size = scaledSize(originalWidth, originalHeight, cap);
+        int newWidth = size[0];
+        int newHeight = size[1];
+        newVideoBitrate = (int) ((long) newVideoBitrate * newWidth * newHeight / ((long) originalWidth * originalHeight));
+
+        return new VideoEncodeSettings(
+            grabber.getFormat(),
+            originalWidth,
+            originalHeight,
+            newWidth,
+            newHeight,
+            grabber.getVideoFrameRate(),
+            newVideoBitrate,
+            grabber.getAudioChannels(),
+            newAudioBitrate,
+            grabber.getSampleRate(),
+            encoderPolicy.choose(compressionLevel, newWidth, newHeight, grabber.getVideoFrameRate()),
+            false
+        );
+    }
+
+    // Settings that aim the whole output at targetBytes: the audio takes a small fixed share, the video gets
+    // the rest as its bitrate, and the resolution steps down while that would leave too few bits per pixel.
+    // maxResolution caps the shorter side as in fromInput; 0 lets the bitrate decide it.
+    static VideoEncodeSettings forTargetSize(FFmpegFrameGrabber grabber, int compressionLevel, long targetBytes,
+                                             int maxResolution, EncoderPolicy encoderPolicy) {
+        double seconds = grabber.getLengthInTime() / 1_000_000.0;
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("The video's duration is unknown, so no target size can be aimed for.");
+        }
+        long totalBitrate = (long) (targetBytes * 8 * (1 - TARGET_SIZE_MARGIN) / seconds);
+
+        int audioBitrate = 0;
+        if (grabber.getAudioChannels() > 0) {
+            int originalAudioBitrate = grabber.getAudioBitrate() > 0 ? grabber.getAudioBitrate() : 128000;
+            audioBitrate = (int) Math.max(32000, Math.min(Math.min(originalAudioBitrate, 128000), totalBitrate / 10));
+        }
+        long videoBitrate = totalBitrate - audioBitrate;
+        if (videoBitrate < MIN_TARGET_VIDEO_BITRATE) {
+            throw new IllegalArgumentException("The target size is too small for a video of this length.");
+        }
+
+        int originalWidth = grabber.getImageWidth();
+        int originalHeight = grabber.getImageHeight();
+        double frameRate = grabber.getVideoFrameRate() > 0 ? grabber.getVideoFrameRate() : 30;
+        int shortSide = Math.min(originalWidth, originalHeight);
+        int cap = maxResolution > 0 ? Math.min(maxResolution, shortSide) : shortSide;
+        int[] size = scaledSize(originalWidth, originalHeight, cap);
+        for (int rung : TARGET_SIZE_LADDER) {
+            if (videoBitrate / (size[0] * (double) size[1] * frameRate) >= MIN_TARGET_BITS_PER_PIXEL) {
+                break;
+            }
+            if (rung < cap) {
+                size = scaledSize(originalWidth, originalHeight, rung);
+            }
+        }
+
+        return new VideoEncodeSettings(
+            grabber.getFormat(),
+            originalWidth,
+            originalHeight,
+            size[0],
+            size[1],
+            grabber.getVideoFrameRate(),
+            (int) Math.min(Integer.MAX_VALUE, videoBitrate),
+            grabber.getAudioChannels(),
+            audioBitrate,
+            grabber.getSampleRate(),
+            encoderPolicy.choose(compressionLevel, size[0], size[1], grabber.getVideoFrameRate()),
+            true
+        );
+    }
+
+    // The same settings with another video bitrate, as corrected by a calibration pass
+    VideoEncodeSettings withVideoBitrate(int bitrate) {
+        return new VideoEncodeSettings(format, sourceWidth, sourceHeight, width, height, frameRate, bitrate,
+            audioChannels, audioBitrate, sampleRate, encoder, bitrateControlled);
+    }
+
+    // The same settings encoding on the threads of an encoder lease
+    VideoEncodeSettings withEncoderThreads(int threads) {
+        return new VideoEncodeSettings(format, sourceWidth, sourceHeight, width, height, frameRate, videoBitrate,
+            audioChannels, audioBitrate, sampleRate, encoder.withThreads(threads), bitrateControlled);
+    }
+
+    // Recorder for the complete output: video and, if the input has it, audio
+    FFmpegFrameRecorder createRecorder(File outputFile) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, width, height, audioChannels);
+        recorder.setFormat(format);
+        applyVideo(recorder);
+        applyAudio(recorder);
+        return recorder;
+    }
+
+    // Recorder for one video-only part of a segmented encode; parts run side by side, so each gets its own
+    // share of the encoder threads
+    FFmpegFrameRecorder createVideoRecorder(File outputFile, String containerFormat, int threads) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, width, height, 0);
+        recorder.setFormat(containerFormat);
+        applyVideo(recorder);
+        recorder.setVideoOption("threads", String.valueOf(threads));
+        return recorder;
+    }
+
+    // Recorder for the audio track of a segmented encode
+    FFmpegFrameRecorder createAudioRecorder(File outputFile, String containerFormat) {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputFile, audioChannels);
+        recorder.setFormat(containerFormat);
+        applyAudio(recorder);
+        return recorder;
+    }
+
+    // Call before starting a grabber whose frames go to createScaler()
+    void prepareGrabber(FFmpegFrameGrabber grabber) {
+        if (isScaled()) {
+            FrameScaler.prepare(grabber);
+        }
+    }
+
+    // Scaler from the input to the output size, or null when the input size is kept
+    FrameScaler createScaler() throws Exception {
+        return isScaled() ? new FrameScaler(sourceWidth, sourceHeight, width, height, frameRate) : null;
+    }
+
+    private boolean isScaled() {
+        return width != sourceWidth || height != sourceHeight;
+    }
+
+    private void applyVideo(FFmpegFrameRecorder recorder) {
+        recorder.setFrameRate(frameRate);
+        recorder.setVideoBitrate(videoBitrate);
+
+        // Use H.264 for video (widely compatible)
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+
+        // Add quality-related options; with a target size the bitrate alone steers the encoder
+        if (!bitrateControlled) {
+            recorder.setVideoOption("crf", String.valueOf(encoder.crf));
+        }
+        recorder.setVideoOption("preset", encoder.preset);
+        if (!encoder.tune.isEmpty()) {
+            recorder.setVideoOption("tune", encoder.tune);
+        }
+        recorder.setVideoOption("threads", String.valueOf(encoder.threads));
+    }
+
+    private void applyAudio(FFmpegFrameRecorder recorder) {
+        // Set audio parameters if the video has audio
+        if (audioChannels > 0) {
+            recorder.setAudioChannels(audioChannels);
+            recorder.setAudioBitrate(audioBitrate);
+            recorder.setSampleRate(sampleRate);
+        }
+
+        // Use AAC for audio (widely compatible)
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_AAC);
+    }
+
+    String getFormat() {
+        return format;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    double getFrameRate() {
+        return frameRate;
+    }
+
+    int getVideoBitrate() {
+        return videoBitrate;
+    }
+
+    int getThreads() {
+        return encoder.threads;
+    }
+
+    int getAudioChannels() {
+        return audioChannels;
+    }
+
+    // Output size with the shorter side capped at maxShortSide (0 = no cap), keeping the aspect ratio
+    private static int[] scaledSize(int width, int height, int maxShortSide) {
+        int shortSide = Math.min(width, height);
+        if (maxShortSide <= 0 || shortSide <= maxShortSide) {
+            return new int[] {width, height};
+        }
+        double scale = (double) maxShortSide / shortSide;
+        // Encoders need even dimensions for 4:2:0 chroma
+        return new int[] {
+            Math.max(2, (int) Math.round(width * scale / 2) * 2),
+            Math.max(2, (int) Math.round(height * scale / 2) * 2)
+        };
+    }
+
+    private static int ladderResolution(int compressionLevel) {
+        for (int[] rung : RESOLUTION_LADDER) {
+            if (compressionLevel >= rung[0]) {
+                return rung[1];
+            }
+        }
+        return 0;
+    }
+
+    private static int calculateDefaultVideoBitrate(int width, int height, double qualityFactor) {
+        // Calculate a reasonable bitrate based on resolution
+        int baseBitrate = (width * height * 30) / 8000; // bits per pixel * 30fps / 8000
+        return (int)(baseBitrate * qualityFactor);
+    }
+}
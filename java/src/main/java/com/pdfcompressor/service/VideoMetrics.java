@@ -0,0 +1,80 @@
+package com.pdfcompressor.service;
+
+import com.pdfcompressor.model.VideoProgress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Micrometer meters for video encoding, published under /actuator/metrics.
+// Per-frame timers split the time spent decoding (grabber) from encoding (scaling and recorder);
+// the gauges sum up the encodes that are running right now.
+@Component
+public class VideoMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer decodeTimer;
+    private final Timer encodeTimer;
+    private final Counter encodedFrames;
+    private final Counter encodedBytes;
+    private final Set<VideoProgress> active = ConcurrentHashMap.newKeySet();
+
+    public VideoMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.decodeTimer = Timer.builder("video.frame.decode")
+            .description("Time to decode one frame")
+            .register(registry);
+        this.encodeTimer = Timer.builder("video.frame.encode")
+            .description("Time to scale and encode one frame")
+            .register(registry);
+        this.encodedFrames = Counter.builder("video.frames.encoded")
+            .description("Video frames written by the encoder")
+            .register(registry);
+        this.encodedBytes = Counter.builder("video.encoded.bytes")
+            .description("Size of finished video outputs")
+            .baseUnit("bytes")
+            .register(registry);
+        Gauge.builder("video.encodes.active", active, Set::size)
+            .description("Video encodes in progress")
+            .register(registry);
+        Gauge.builder("video.encode.fps", active,
+                encodes -> encodes.stream().mapToDouble(VideoProgress::getFramesPerSecond).sum())
+            .description("Frames per second over all encodes in progress")
+            .register(registry);
+        Gauge.builder("video.encode.eta", active,
+                encodes -> encodes.stream().mapToLong(VideoProgress::getEstimatedSecondsRemaining).max().orElse(0))
+            .description("Estimated time until the slowest encode in progress finishes")
+            .baseUnit("seconds")
+            .register(registry);
+    }
+
+    // Starts tracking one compression; the monitor must be closed when it ends
+    EncodeMonitor start(VideoProgress progress, long totalFrames) {
+        progress.start(totalFrames);
+        active.add(progress);
+        return new EncodeMonitor(this, progress);
+    }
+
+    void recordFrame(int frames, long decodeNanos, long encodeNanos) {
+        decodeTimer.record(decodeNanos, TimeUnit.NANOSECONDS);
+        encodeTimer.record(encodeNanos, TimeUnit.NANOSECONDS);
+        if (frames > 0) {
+            encodedFrames.increment(frames);
+        }
+    }
+
+    void finish(VideoProgress progress, String path, long elapsedNanos, long outputBytes) {
+        active.remove(progress);
+        encodedBytes.increment(outputBytes);
+        Timer.builder("video.compress")
+            .description("Time to compress one video")
+            .tag("path", path)
+            .register(registry)
+            .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,115 @@
+package com.pdfcompressor.service;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.util.Map;
+import java.util.Set;
+
+// Decides from the input's metadata alone whether a full decode and re-encode is worth its cost.
+// The encoder writes H.264, and an H.264 stream cannot be squeezed much below a certain number of bits
+// per pixel without visible damage; inputs that are already there, or that use a newer codec that needs
+// fewer bits than H.264 for the same picture, would come out barely smaller or even larger.
+// Those are copied packet by packet instead, or handed back untouched.
+class VideoPreflight {
+
+    enum Action {
+        // Decode and encode with the compression settings
+        ENCODE,
+        // Keep the encoded streams but write them into a fresh container without the extra streams
+        REMUX,
+        // The input is returned as it is
+        KEEP_ORIGINAL
+    }
+
+    static final class Decision {
+        final Action action;
+        final String reason;
+
+        Decision(Action action, String reason) {
+            this.action = action;
+            this.reason = reason;
+        }
+    }
+
+    // How many bits H.264 needs for the same picture as one bit of the input codec
+    private static final Map<Integer, Double> H264_EQUIVALENT = Map.of(
+        avcodec.AV_CODEC_ID_H264, 1.0,
+        avcodec.AV_CODEC_ID_HEVC, 1.5,
+        avcodec.AV_CODEC_ID_VP9, 1.5,
+        avcodec.AV_CODEC_ID_AV1, 2.0
+    );
+
+    // Lossy audio codecs that are not worth converting to AAC; anything else (PCM, FLAC, ...) is
+    private static final Set<Integer> COMPACT_AUDIO = Set.of(
+        avcodec.AV_CODEC_ID_AAC,
+        avcodec.AV_CODEC_ID_MP3,
+        avcodec.AV_CODEC_ID_OPUS,
+        avcodec.AV_CODEC_ID_VORBIS,
+        avcodec.AV_CODEC_ID_AC3,
+        avcodec.AV_CODEC_ID_EAC3
+    );
+
+    private final double minBitsPerPixel;
+    private final double minSavings;
+
+    VideoPreflight(double minBitsPerPixel, double minSavings) {
+        this.minBitsPerPixel = minBitsPerPixel;
+        this.minSavings = minSavings;
+    }
+
+    Decision analyze(FFmpegFrameGrabber probe, long fileSize, VideoEncodeSettings settings) {
+        int width = probe.getImageWidth();
+        int height = probe.getImageHeight();
+        double frameRate = probe.getVideoFrameRate();
+        if (probe.getVideoStream() < 0 || width <= 0 || height <= 0 || frameRate <= 0) {
+            return new Decision(Action.ENCODE, "video stream parameters unknown");
+        }
+
+        Double equivalence = H264_EQUIVALENT.get(probe.getVideoCodec());
+        if (equivalence == null) {
+            return new Decision(Action.ENCODE, "video codec " + probe.getVideoCodecName() + " is less efficient than H.264");
+        }
+        boolean hasAudio = probe.getAudioStream() >= 0;
+        if (hasAudio && !COMPACT_AUDIO.contains(probe.getAudioCodec())) {
+            return new Decision(Action.ENCODE, "audio codec " + probe.getAudioCodecName() + " is uncompressed or lossless");
+        }
+
+        long videoBitrate = videoBitrate(probe, fileSize);
+        if (videoBitrate <= 0) {
+            return new Decision(Action.ENCODE, "video bitrate unknown");
+        }
+
+        // Expected H.264 output: the bitrate the compression level asks for, carried over into H.264 terms,
+        // but never below what H.264 needs for the output's pixels per second (lower after downscaling)
+        double pixelRate = (double) width * height * frameRate;
+        double outputPixelRate = (double) settings.getWidth() * settings.getHeight() * frameRate;
+        double predicted = Math.max(settings.getVideoBitrate() * equivalence, minBitsPerPixel * outputPixelRate);
+        double savings = 1.0 - predicted / videoBitrate;
+        if (savings >= minSavings) {
+            return new Decision(Action.ENCODE, String.format("predicted video savings %.0f%%", savings * 100));
+        }
+
+        String reason = String.format("%s at %.3f bits/pixel, predicted video savings %.0f%%",
+            probe.getVideoCodecName(), videoBitrate / pixelRate, Math.max(0, savings) * 100);
+        // Only rewrite the container when it carries streams the output would drop anyway
+        int keptStreams = hasAudio ? 2 : 1;
+        if (probe.getFormatContext().nb_streams() > keptStreams) {
+            return new Decision(Action.REMUX, reason);
+        }
+        return new Decision(Action.KEEP_ORIGINAL, reason);
+    }
+
+    private static long videoBitrate(FFmpegFrameGrabber probe, long fileSize) {
+        if (probe.getVideoBitrate() > 0) {
+            return probe.getVideoBitrate();
+        }
+        // Not every container records it; estimate from the file size and the audio bitrate
+        long durationMicros = probe.getLengthInTime();
+        if (durationMicros <= 0) {
+            return 0;
+        }
+        long totalBitrate = (long) (fileSize * 8 / (durationMicros / 1_000_000.0));
+        return totalBitrate - Math.max(0, probe.getAudioBitrate());
+    }
+}
@@ -0,0 +1,544 @@
+package com.pdfcompressor.service;
+
+import com.pdfcompressor.service.TileScheduler.Tile;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+// Watermark removal passes working directly on the backing arrays of the images.
+// Pixels are handled as packed 0xRRGGBB ints and masks as one byte per pixel (1 = watermark),
+// so no per-pixel objects are created. Apart from the indexed texture search, results match the
+// original getRGB/setRGB implementation.
+// Every pass runs tile by tile through a TileScheduler. A tile only writes its own pixels and reads
+// neighbours from full-image arrays of the previous pass, so the output does not depend on the tiling
+// or the number of threads.
+public class WatermarkRasterEngine {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    // Default half-width of the window averaged to find low-edge (flat) areas
+    public static final int DEFAULT_EDGE_RADIUS = 5;
+
+    // Radius of the 3x3 kernels (Sobel, blur)
+    private static final int KERNEL_HALO = 1;
+
+    private static final int PATCH_SIZE = 5;
+    private static final int PATCH_STEP = 3;
+    private static final int MAX_SEARCH_DISTANCE = 50;
+
+    // Nearest patches (by descriptor) that are scored exactly for each masked pixel
+    private static final int TEXTURE_CANDIDATES = 16;
+
+    // 8 directions (N, NE, E, SE, S, SW, W, NW) used when filling from the nearest clean pixels
+    private static final int[] DIRECTION_X = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] DIRECTION_Y = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+    // TYPE_BYTE_GRAY images store linear gray, so getRGB/setRGB on them convert to and from sRGB.
+    // These tables reproduce that conversion: sRGB gray level -> stored byte, and stored byte -> sRGB gray level.
+    private static final int[] GRAY_TO_RASTER = new int[256];
+    private static final int[] RASTER_TO_GRAY = new int[256];
+
+    static {
+        BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] probeData = ((DataBufferByte) probe.getRaster().getDataBuffer()).getData();
+        for (int value = 0; value < 256; value++) {
+            probe.setRGB(0, 0, 0xFF000000 | (value << 16) | (value << 8) | value);
+            GRAY_TO_RASTER[value] = probeData[0] & 0xFF;
+
+            probeData[0] = (byte) value;
+            RASTER_TO_GRAY[value] = probe.getRGB(0, 0) & 0xFF;
+        }
+    }
+
+    private static final float[] SOBEL_X = {
+        -1, 0, 1,
+        -2, 0, 2,
+        -1, 0, 1
+    };
+
+    private static final float[] SOBEL_Y = {
+        -1, -2, -1,
+         0,  0,  0,
+         1,  2,  1
+    };
+
+    private static final float[] BLUR = {
+        1/16f, 1/8f, 1/16f,
+        1/8f,  1/4f, 1/8f,
+        1/16f, 1/8f, 1/16f
+    };
+
+    private final ForkJoinPool pool;
+    private final TileScheduler scheduler;
+
+    // Single-threaded engine
+    public WatermarkRasterEngine() {
+        this(1, DEFAULT_TILE_SIZE);
+    }
+
+    public WatermarkRasterEngine(int parallelism, int tileSize) {
+        if (parallelism > 1) {
+            this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("watermark-tile-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        } else {
+            this.pool = null;
+        }
+        this.scheduler = new TileScheduler(pool, tileSize);
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public BufferedImage removeByColorFiltering(BufferedImage image, int threshold, int tolerance) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = readPixels(image);
+        List<Tile> tiles = scheduler.tiles(width, height);
+
+        // Step 1: Grayscale histogram to find dominant brightness levels, counted per tile and summed
+        int[][] tileHistograms = new int[tiles.size()][256];
+        scheduler.run(tiles, tile -> {
+            int[] tileHistogram = tileHistograms[tile.index];
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    tileHistogram[brightness(pixels[y * width + x])]++;
+                }
+            }
+        });
+        int[] histogram = new int[256];
+        for (int[] tileHistogram : tileHistograms) {
+            for (int i = 0; i < 256; i++) {
+                histogram[i] += tileHistogram[i];
+            }
+        }
+
+        // Peaks close to the threshold are potential watermark colors
+        boolean[] isPeak = new boolean[256];
+        for (int i = 1; i < 255; i++) {
+            if (histogram[i] > histogram[i-1] && histogram[i] > histogram[i+1]
+                    && i > threshold - 30 && i < threshold + 30) {
+                isPeak[i] = true;
+            }
+        }
+
+        // A brightness matches when any peak lies within the tolerance; resolve that once per level
+        boolean[] nearPeak = new boolean[256];
+        for (int level = 0; level < 256; level++) {
+            for (int i = Math.max(0, level - tolerance); i <= Math.min(255, level + tolerance); i++) {
+                if (isPeak[i]) {
+                    nearPeak[level] = true;
+                    break;
+                }
+            }
+        }
+
+        // Step 2: Mask of potential watermark pixels
+        byte[] candidates = new byte[pixels.length];
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    int index = y * width + x;
+                    int rgb = pixels[index];
+                    if (nearPeak[brightness(rgb)] || isSemiTransparent(rgb, tolerance)) {
+                        candidates[index] = 1;
+                    }
+                }
+            }
+        });
+
+        // Step 3: Close small gaps in the mask
+        byte[] mask = applyMorphologicalOperations(candidates, width, height, tiles);
+
+        // Step 4: Replace watermark pixels from their nearest clean neighbours
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] resultPixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    int index = y * width + x;
+                    int rgb = mask[index] != 0
+                        ? getReplacementColor(pixels, mask, width, height, x, y)
+                        : pixels[index];
+                    resultPixels[index] = rgb & 0xFFFFFF;
+                }
+            }
+        });
+
+        // Step 5: Blend the result
+        return applyPostProcessing(result, tiles);
+    }
+
+    public BufferedImage removeByEdgeReconstruction(BufferedImage image, int threshold, int tolerance) {
+        return removeByEdgeReconstruction(image, threshold, tolerance, DEFAULT_EDGE_RADIUS);
+    }
+
+    public BufferedImage removeByEdgeReconstruction(BufferedImage image, int threshold, int tolerance, int edgeRadius) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = readPixels(image);
+        List<Tile> tiles = scheduler.tiles(width, height);
+
+        // Step 1: Grayscale copy for edge detection
+        BufferedImage grayscale = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] grayData = ((DataBufferByte) grayscale.getRaster().getDataBuffer()).getData();
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    int index = y * width + x;
+                    grayData[index] = (byte) GRAY_TO_RASTER[brightness(pixels[index])];
+                }
+            }
+        });
+
+        // Step 2: Edge magnitudes
+        int[] edges = applyEdgeDetection(grayscale, tiles);
+
+        // Step 3: Low edge density with moderate brightness marks a potential watermark.
+        // Window sums come from a summed-area table built once, so the radius does not change the cost;
+        // windows reaching past a tile read the shared table.
+        long[] edgeSums = buildSummedAreaTable(edges, width, height);
+        // A window wider than the image is the whole image; clamping keeps x + radius from overflowing
+        int radius = Math.max(0, Math.min(edgeRadius, Math.max(width, height)));
+        byte[] candidates = new byte[pixels.length];
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    int index = y * width + x;
+                    int edgeDensity = calculateLocalEdgeDensity(edgeSums, width, height, x, y, radius);
+                    int brightness = brightness(pixels[index]);
+                    if (edgeDensity < tolerance && brightness > threshold - 50 && brightness < threshold + 50) {
+                        candidates[index] = 1;
+                    }
+                }
+            }
+        });
+
+        // Step 4: Close small gaps in the mask
+        byte[] mask = applyMorphologicalOperations(candidates, width, height, tiles);
+
+        // Step 5: Texture-aware inpainting, matching against an index of the clean patches built once.
+        // The index is read-only after construction, so tiles share it and only keep their own query buffers.
+        PatchIndex patchIndex = new PatchIndex(pixels, mask, width, height, PATCH_SIZE, PATCH_STEP);
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] resultPixels = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        scheduler.run(tiles, tile -> {
+            PatchIndex.Query query = new PatchIndex.Query(TEXTURE_CANDIDATES);
+            int[] contextPattern = new int[PATCH_SIZE * PATCH_SIZE * 3];
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    int index = y * width + x;
+                    int rgb = mask[index] != 0
+                        ? getTextureAwareReplacement(pixels, mask, width, height, x, y, contextPattern, patchIndex, query)
+                        : pixels[index];
+                    resultPixels[index] = rgb & 0xFFFFFF;
+                }
+            }
+        });
+
+        // Step 6: Blend the result
+        return applyPostProcessing(result, tiles);
+    }
+
+    int[] applyEdgeDetection(BufferedImage grayscale, List<Tile> tiles) {
+        int width = grayscale.getWidth();
+        int height = grayscale.getHeight();
+        int[] edges = new int[width * height];
+
+        scheduler.run(tiles, tile -> {
+            // Convolve the tile plus a one pixel halo; the halo only feeds the kernel and is not copied back
+            Rectangle area = tile.withHalo(KERNEL_HALO, width, height);
+            BufferedImage source = grayscale.getSubimage(area.x, area.y, area.width, area.height);
+            ConvolveOp sobelXOp = new ConvolveOp(new Kernel(3, 3, SOBEL_X), ConvolveOp.EDGE_NO_OP, null);
+            ConvolveOp sobelYOp = new ConvolveOp(new Kernel(3, 3, SOBEL_Y), ConvolveOp.EDGE_NO_OP, null);
+
+            byte[] gradientX = grayBytes(sobelXOp.filter(source, null));
+            byte[] gradientY = grayBytes(sobelYOp.filter(source, null));
+
+            // Combine the gradients; values go through the same gray round trip the image-based version had
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                int local = (y - area.y) * area.width + (tile.x - area.x);
+                int index = y * width + tile.x;
+                for (int x = 0; x < tile.width; x++, local++, index++) {
+                    int gx = RASTER_TO_GRAY[gradientX[local] & 0xFF];
+                    int gy = RASTER_TO_GRAY[gradientY[local] & 0xFF];
+                    int magnitude = Math.min(255, (int) Math.sqrt(gx*gx + gy*gy));
+                    edges[index] = RASTER_TO_GRAY[GRAY_TO_RASTER[magnitude]];
+                }
+            }
+        });
+        return edges;
+    }
+
+    long[] buildSummedAreaTable(int[] edges, int width, int height) {
+        // sums[(y + 1) * (width + 1) + (x + 1)] holds the total edge strength of the rectangle (0,0)-(x,y);
+        // row 0 and column 0 stay zero so window lookups need no bounds checks
+        int stride = width + 1;
+        long[] sums = new long[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            long rowSum = 0;
+            int row = y * width;
+            int above = y * stride;
+            int current = above + stride;
+            for (int x = 0; x < width; x++) {
+                rowSum += edges[row + x];
+                sums[current + x + 1] = sums[above + x + 1] + rowSum;
+            }
+        }
+        return sums;
+    }
+
+    int calculateLocalEdgeDensity(long[] edgeSums, int width, int height, int x, int y, int radius) {
+        // Window clipped to the image, so border pixels average over fewer neighbours
+        int x0 = Math.max(0, x - radius);
+        int x1 = Math.min(width - 1, x + radius);
+        int y0 = Math.max(0, y - radius);
+        int y1 = Math.min(height - 1, y + radius);
+
+        int stride = width + 1;
+        long totalEdgeStrength = edgeSums[(y1 + 1) * stride + x1 + 1] - edgeSums[y0 * stride + x1 + 1]
+            - edgeSums[(y1 + 1) * stride + x0] + edgeSums[y0 * stride + x0];
+
+        int pixelCount = (x1 - x0 + 1) * (y1 - y0 + 1);
+        return (int) (totalEdgeStrength / pixelCount);
+    }
+
+    byte[] applyMorphologicalOperations(byte[] mask, int width, int height, List<Tile> tiles) {
+        // Dilation connects nearby watermark pixels, erosion then removes small isolated areas.
+        // Erosion reads dilated pixels of neighbouring tiles, so it starts only after every tile is dilated.
+        byte[] dilated = new byte[mask.length];
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    if (anyInNeighbourhood(mask, width, height, x, y)) {
+                        dilated[y * width + x] = 1;
+                    }
+                }
+            }
+        });
+
+        byte[] eroded = new byte[mask.length];
+        scheduler.run(tiles, tile -> {
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    if (allInNeighbourhood(dilated, width, height, x, y)) {
+                        eroded[y * width + x] = 1;
+                    }
+                }
+            }
+        });
+        return eroded;
+    }
+
+    private boolean anyInNeighbourhood(byte[] mask, int width, int height, int x, int y) {
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                if (mask[ny * width + nx] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean allInNeighbourhood(byte[] mask, int width, int height, int x, int y) {
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                if (mask[ny * width + nx] == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    int getReplacementColor(int[] pixels, byte[] mask, int width, int height, int x, int y) {
+        // Weighted average of the nearest non-watermark pixel in each direction
+        int totalWeight = 0;
+        int weightedR = 0, weightedG = 0, weightedB = 0;
+
+        for (int dir = 0; dir < 8; dir++) {
+            for (int dist = 1; dist < MAX_SEARCH_DISTANCE; dist++) {
+                int nx = x + DIRECTION_X[dir] * dist;
+                int ny = y + DIRECTION_Y[dir] * dist;
+
+                if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+                    break;
+                }
+                int index = ny * width + nx;
+                if (mask[index] == 0) {
+                    // Weight inversely proportional to distance
+                    int weight = 100 / dist;
+                    int rgb = pixels[index];
+                    totalWeight += weight;
+                    weightedR += ((rgb >> 16) & 0xFF) * weight;
+                    weightedG += ((rgb >> 8) & 0xFF) * weight;
+                    weightedB += (rgb & 0xFF) * weight;
+                    break;
+                }
+            }
+        }
+
+        if (totalWeight > 0) {
+            return ((weightedR / totalWeight) << 16) | ((weightedG / totalWeight) << 8) | (weightedB / totalWeight);
+        }
+        // Fallback: keep the original color
+        return pixels[y * width + x];
+    }
+
+    int getTextureAwareReplacement(int[] pixels, byte[] mask, int width, int height, int x, int y,
+                                   int[] contextPattern, PatchIndex patchIndex, PatchIndex.Query query) {
+        int radius = PATCH_SIZE / 2;
+
+        // Known (non-watermark) pixels around the current one; -1 marks unknown entries
+        int knownPixels = 0;
+        int sumR = 0, sumG = 0, sumB = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                int nx = x + dx;
+                int ny = y + dy;
+                int patternIndex = ((dy + radius) * PATCH_SIZE + (dx + radius)) * 3;
+
+                if (nx >= 0 && nx < width && ny >= 0 && ny < height && mask[ny * width + nx] == 0) {
+                    int rgb = pixels[ny * width + nx];
+                    contextPattern[patternIndex] = (rgb >> 16) & 0xFF;
+                    contextPattern[patternIndex + 1] = (rgb >> 8) & 0xFF;
+                    contextPattern[patternIndex + 2] = rgb & 0xFF;
+                    sumR += contextPattern[patternIndex];
+                    sumG += contextPattern[patternIndex + 1];
+                    sumB += contextPattern[patternIndex + 2];
+                    knownPixels++;
+                } else {
+                    contextPattern[patternIndex] = -1;
+                }
+            }
+        }
+
+        // Without any known context no candidate can score, so go straight to the fallback
+        if (knownPixels == 0 || patchIndex.size() == 0) {
+            return getReplacementColor(pixels, mask, width, height, x, y);
+        }
+
+        // Describe the known context the same way the index describes candidate patches
+        float meanLuminance = (sumR + sumG + sumB) / (3f * knownPixels);
+        float deviation = 0;
+        for (int i = 0; i < contextPattern.length; i += 3) {
+            if (contextPattern[i] >= 0) {
+                float luminance = (contextPattern[i] + contextPattern[i + 1] + contextPattern[i + 2]) / 3f;
+                deviation += Math.abs(luminance - meanLuminance);
+            }
+        }
+        query.target[0] = sumR / (float) knownPixels;
+        query.target[1] = sumG / (float) knownPixels;
+        query.target[2] = sumB / (float) knownPixels;
+        query.target[3] = deviation / knownPixels;
+        patchIndex.nearest(query);
+
+        // Score the closest candidates exactly; ties go to the earliest patch in scan order
+        int bestMatchIndex = -1;
+        double bestMatchScore = Double.MAX_VALUE;
+        for (int i = 0; i < query.found; i++) {
+            int candidate = query.matches[i];
+            double matchScore = calculatePatternMatchScore(contextPattern, knownPixels, pixels, width,
+                candidate % width, candidate / width);
+            if (matchScore < bestMatchScore || (matchScore == bestMatchScore && candidate < bestMatchIndex)) {
+                bestMatchScore = matchScore;
+                bestMatchIndex = candidate;
+            }
+        }
+
+        // Use the center pixel of the best matching patch
+        return pixels[bestMatchIndex];
+    }
+
+    double calculatePatternMatchScore(int[] contextPattern, int knownPixels, int[] pixels, int width, int sx, int sy) {
+        // Candidates are always fully inside the image, so every known context pixel is compared
+        int radius = PATCH_SIZE / 2;
+        double totalDifference = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = (sy + dy) * width;
+            for (int dx = -radius; dx <= radius; dx++) {
+                int patternIndex = ((dy + radius) * PATCH_SIZE + (dx + radius)) * 3;
+                if (contextPattern[patternIndex] < 0) {
+                    continue;
+                }
+                int rgb = pixels[row + sx + dx];
+                int rDiff = contextPattern[patternIndex] - ((rgb >> 16) & 0xFF);
+                int gDiff = contextPattern[patternIndex + 1] - ((rgb >> 8) & 0xFF);
+                int bDiff = contextPattern[patternIndex + 2] - (rgb & 0xFF);
+                totalDifference += Math.sqrt(rDiff*rDiff + gDiff*gDiff + bDiff*bDiff);
+            }
+        }
+        return totalDifference / knownPixels;
+    }
+
+    BufferedImage applyPostProcessing(BufferedImage image, List<Tile> tiles) {
+        // Apply a slight blur to blend the inpainted areas, tile by tile with a one pixel halo
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage blurred = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] blurredPixels = ((DataBufferInt) blurred.getRaster().getDataBuffer()).getData();
+
+        scheduler.run(tiles, tile -> {
+            Rectangle area = tile.withHalo(KERNEL_HALO, width, height);
+            ConvolveOp blurOp = new ConvolveOp(new Kernel(3, 3, BLUR), ConvolveOp.EDGE_NO_OP, null);
+            BufferedImage part = blurOp.filter(image.getSubimage(area.x, area.y, area.width, area.height), null);
+            int[] partPixels = ((DataBufferInt) part.getRaster().getDataBuffer()).getData();
+            for (int y = tile.y; y < tile.y + tile.height; y++) {
+                System.arraycopy(partPixels, (y - area.y) * area.width + (tile.x - area.x),
+                    blurredPixels, y * width + tile.x, tile.width);
+            }
+        });
+        return blurred;
+    }
+
+    static int[] readPixels(BufferedImage image) {
+        // Packed-int images without offsets can be read in place; everything else is converted once
+        int type = image.getType();
+        Raster raster = image.getRaster();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == image.getWidth()
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0) {
+            return ((DataBufferInt) raster.getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static byte[] grayBytes(BufferedImage grayImage) {
+        return ((DataBufferByte) grayImage.getRaster().getDataBuffer()).getData();
+    }
+
+    private static int brightness(int rgb) {
+        return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+    }
+
+    private static boolean isSemiTransparent(int rgb, int tolerance) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+
+        // Gray/white with transparency: channels very close to each other
+        boolean isNearlyGray = Math.abs(r - g) < tolerance && Math.abs(r - b) < tolerance && Math.abs(g - b) < tolerance;
+
+        // Many watermarks have a slight blue or red cast
+        boolean hasColorCast = (b > r + tolerance && b > g + tolerance) || (r > b + tolerance && r > g + tolerance);
+
+        return isNearlyGray || hasColorCast;
+    }
+}
@@ -0,0 +1,102 @@
+package com.pdfcompressor.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Tiling must not change the result: every tile size and thread count gives the same pixels as one
+// single-threaded pass over default-sized tiles
+class WatermarkRasterEngineTest {
+
+    private static final int THRESHOLD = 200;
+    private static final int TOLERANCE = 30;
+
+    private static BufferedImage image;
+    private static int[] colorFilteringReference;
+    private static int[] edgeReconstructionReference;
+
+    @BeforeAll
+    static void render() {
+        image = watermarkedPage(420, 300);
+        WatermarkRasterEngine engine = new WatermarkRasterEngine();
+        colorFilteringReference = pixels(engine.removeByColorFiltering(image, THRESHOLD, TOLERANCE));
+        edgeReconstructionReference = pixels(engine.removeByEdgeReconstruction(image, THRESHOLD, TOLERANCE));
+
+        // Both passes have to change something, or equal rasters would prove nothing
+        assertFalse(Arrays.equals(pixels(image), colorFilteringReference), "color filtering left the image unchanged");
+        assertFalse(Arrays.equals(pixels(image), edgeReconstructionReference), "edge reconstruction left the image unchanged");
+    }
+
+    // Tile sizes below the 16-pixel minimum, not dividing the image, and larger than it
+    static Stream<Arguments> tilings() {
+        return Stream.of(1, 2, 4).flatMap(threads -> Stream.of(8, 16, 37, 64, 100, 512)
+            .map(tileSize -> Arguments.of(threads, tileSize)));
+    }
+
+    @ParameterizedTest(name = "{0} threads, {1}px tiles")
+    @MethodSource("tilings")
+    void colorFilteringIsIndependentOfTiling(int threads, int tileSize) {
+        WatermarkRasterEngine engine = new WatermarkRasterEngine(threads, tileSize);
+        try {
+            assertArrayEquals(colorFilteringReference, pixels(engine.removeByColorFiltering(image, THRESHOLD, TOLERANCE)));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @ParameterizedTest(name = "{0} threads, {1}px tiles")
+    @MethodSource("tilings")
+    void edgeReconstructionIsIndependentOfTiling(int threads, int tileSize) {
+        WatermarkRasterEngine engine = new WatermarkRasterEngine(threads, tileSize);
+        try {
+            assertArrayEquals(edgeReconstructionReference,
+                pixels(engine.removeByEdgeReconstruction(image, THRESHOLD, TOLERANCE)));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    // Noisy paper with dark text bars under a light diagonal watermark near the threshold brightness
+    static BufferedImage watermarkedPage(int width, int height) {
+        BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = 235 + random.nextInt(20);
+                page.setRGB(x, y, new Color(level, level, level - 5).getRGB());
+            }
+        }
+        Graphics2D graphics = page.createGraphics();
+        try {
+            graphics.setColor(new Color(40, 40, 40));
+            for (int y = 15; y < height - 10; y += 18) {
+                for (int x = 15; x < width - 40; x += 6 + random.nextInt(30)) {
+                    graphics.fillRect(x, y, 3 + random.nextInt(20), 9);
+                }
+            }
+            graphics.setColor(new Color(190, 190, 215, 200));
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, width / 7));
+            graphics.rotate(-Math.PI / 6, width / 2.0, height / 2.0);
+            graphics.drawString("CONFIDENTIAL", width / 12, height / 2);
+        } finally {
+            graphics.dispose();
+        }
+        return page;
+    }
+}
@@ -0,0 +1,129 @@
+package com.pdfcompressor.service;
+
+import com.pdfcompressor.benchmark.LegacyWatermarkPasses;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static com.pdfcompressor.service.WatermarkRasterEngineTest.pixels;
+import static com.pdfcompressor.service.WatermarkRasterEngineTest.watermarkedPage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The raster engine has to produce the pixels of the getRGB/Color passes it replaced. Color filtering matches
+// exactly. Edge reconstruction matches exactly everywhere but the inpainted mask, where the indexed texture
+// search may pick another close patch than the exhaustive one did
+class WatermarkRasterLegacyTest {
+
+    private static final int TOLERANCE = 30;
+
+    // Inpainted pixels may come from another patch of the same noisy paper (20 gray levels wide), but on
+    // average must stay within half of that of the exhaustive search's choice
+    private static final double MAX_MEAN_INPAINT_DIFFERENCE = 10;
+
+    private static BufferedImage image;
+    private static WatermarkRasterEngine engine;
+    private final LegacyWatermarkPasses legacy = new LegacyWatermarkPasses();
+
+    @BeforeAll
+    static void setUp() {
+        image = watermarkedPage(420, 300);
+        engine = new WatermarkRasterEngine(2, 64);
+    }
+
+    @AfterAll
+    static void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void colorFilteringMatchesLegacy() {
+        assertArrayEquals(pixels(legacy.removeWatermarkByColorFiltering(image, 200, TOLERANCE)),
+            pixels(engine.removeByColorFiltering(image, 200, TOLERANCE)));
+    }
+
+    @ParameterizedTest(name = "threshold {0}")
+    @ValueSource(ints = {120, 200})
+    void edgeReconstructionMatchesLegacyOutsideInpainting(int threshold) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] expected = pixels(legacy.removeWatermarkByEdgeReconstruction(image, threshold, TOLERANCE));
+        int[] actual = pixels(engine.removeByEdgeReconstruction(image, threshold, TOLERANCE));
+        byte[] mask = inpaintingMask(threshold);
+
+        int inpainted = 0;
+        long difference = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                // The final blur spreads an inpainted pixel one pixel further
+                if (!nearMask(mask, width, height, x, y)) {
+                    assertEquals(expected[index], actual[index], "pixel " + x + "," + y + " outside the mask");
+                } else {
+                    inpainted++;
+                    difference += maxChannelDifference(expected[index], actual[index]);
+                }
+            }
+        }
+        assertTrue(inpainted > 0, "nothing was inpainted, the comparison proves nothing");
+        double meanDifference = (double) difference / inpainted;
+        assertTrue(meanDifference <= MAX_MEAN_INPAINT_DIFFERENCE,
+            "inpainted pixels differ from the exhaustive search by " + meanDifference + " levels on average");
+    }
+
+    // Steps 1-4 of edge reconstruction, as the engine runs them before inpainting
+    private static byte[] inpaintingMask(int threshold) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        List<TileScheduler.Tile> tiles = new TileScheduler(null, WatermarkRasterEngine.DEFAULT_TILE_SIZE).tiles(width, height);
+
+        BufferedImage grayscale = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        int[] pixels = pixels(image);
+        for (int i = 0; i < pixels.length; i++) {
+            int gray = brightness(pixels[i]);
+            grayscale.setRGB(i % width, i / width, new Color(gray, gray, gray).getRGB());
+        }
+        long[] edgeSums = engine.buildSummedAreaTable(engine.applyEdgeDetection(grayscale, tiles), width, height);
+
+        byte[] candidates = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int edgeDensity = engine.calculateLocalEdgeDensity(edgeSums, width, height, i % width, i / width,
+                WatermarkRasterEngine.DEFAULT_EDGE_RADIUS);
+            int brightness = brightness(pixels[i]);
+            if (edgeDensity < TOLERANCE && brightness > threshold - 50 && brightness < threshold + 50) {
+                candidates[i] = 1;
+            }
+        }
+        return engine.applyMorphologicalOperations(candidates, width, height, tiles);
+    }
+
+    private static boolean nearMask(byte[] mask, int width, int height, int x, int y) {
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                if (mask[ny * width + nx] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int maxChannelDifference(int a, int b) {
+        int max = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            max = Math.max(max, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+        }
+        return max;
+    }
+
+    private static int brightness(int rgb) {
+        return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3;
+    }
+}